@@ -0,0 +1,167 @@
+package io.andref.example;
+
+import android.app.Instrumentation;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.Choreographer;
+import io.andref.widget.AnimatedCheckBox;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures frame intervals while the checkbox flips back and forth, with and without
+ * flip layers. Results are written to logcat under the tag of this class:
+ *
+ * <pre>adb logcat -s FlipFrameTimingTest</pre>
+ */
+public class FlipFrameTimingTest extends ActivityInstrumentationTestCase2<CircleViewActivity>
+{
+    private static final String TAG = "FlipFrameTimingTest";
+
+    private static final int FLIP_COUNT = 20;
+    private static final long FLIP_INTERVAL_MS = 450;
+
+    /** A frame longer than this missed at least one vsync at 60 Hz */
+    private static final long JANK_THRESHOLD_NS = 17 * 1000 * 1000;
+
+    private AnimatedCheckBox animatedCheckBox;
+
+    public FlipFrameTimingTest()
+    {
+        super(CircleViewActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        animatedCheckBox = (AnimatedCheckBox) getActivity().findViewById(R.id.animated_check_box);
+    }
+
+    public void testFlipWithLayers() throws Exception
+    {
+        report("layers", measureFlips(true));
+    }
+
+    public void testFlipWithoutLayers() throws Exception
+    {
+        report("no layers", measureFlips(false));
+    }
+
+    private long[] measureFlips(final boolean flipLayersEnabled) throws InterruptedException
+    {
+        final Instrumentation instrumentation = getInstrumentation();
+        final FrameRecorder recorder = new FrameRecorder(FLIP_COUNT * 64);
+
+        instrumentation.runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                animatedCheckBox.setFlipLayersEnabled(flipLayersEnabled);
+                animatedCheckBox.bindChecked(false);
+
+                Choreographer.getInstance().postFrameCallback(recorder);
+            }
+        });
+
+        for (int i = 0; i < FLIP_COUNT; i++)
+        {
+            instrumentation.runOnMainSync(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    animatedCheckBox.performClick();
+                }
+            });
+
+            Thread.sleep(FLIP_INTERVAL_MS);
+        }
+
+        instrumentation.runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                recorder.stop();
+            }
+        });
+
+        return recorder.getIntervals();
+    }
+
+    private void report(String label, long[] intervals)
+    {
+        assertTrue("No frames recorded", intervals.length > 0);
+
+        long[] sorted = intervals.clone();
+        Arrays.sort(sorted);
+
+        long total = 0;
+        int janky = 0;
+
+        for (long interval : intervals)
+        {
+            total += interval;
+
+            if (interval > JANK_THRESHOLD_NS)
+            {
+                janky++;
+            }
+        }
+
+        Log.i(TAG, String.format(Locale.US, "%s: %d frames, mean %.2f ms, p90 %.2f ms, max %.2f ms, janky %d",
+                label,
+                intervals.length,
+                total / (double) intervals.length / 1e6,
+                sorted[(int) (sorted.length * 0.9)] / 1e6,
+                sorted[sorted.length - 1] / 1e6,
+                janky));
+    }
+
+    /**
+     * Records the time between consecutive frames until stopped.
+     */
+    private static final class FrameRecorder implements Choreographer.FrameCallback
+    {
+        private final long[] intervals;
+        private int count;
+        private long lastFrameTimeNanos;
+        private boolean isStopped;
+
+        FrameRecorder(int capacity)
+        {
+            intervals = new long[capacity];
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            if (isStopped)
+            {
+                return;
+            }
+
+            if (lastFrameTimeNanos != 0 && count < intervals.length)
+            {
+                intervals[count++] = frameTimeNanos - lastFrameTimeNanos;
+            }
+
+            lastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop()
+        {
+            isStopped = true;
+        }
+
+        long[] getIntervals()
+        {
+            return Arrays.copyOf(intervals, count);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package io.andref.widget;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import io.andref.benchmark.BuildConfig;
+import io.andref.benchmark.R;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class AnimatedCheckBoxBenchmark
+{
+    private static final int SIZE_DP = 48;
+
+    /** Each flip runs every frame of the animation, so fewer are measured. */
+    private static final int FLIP_WARMUP_ITERATIONS = 50;
+    private static final int FLIP_ITERATIONS = 500;
+
+    private LayoutInflater inflater;
+    private Canvas canvas;
+
+    @Before
+    public void setUp()
+    {
+        inflater = LayoutInflater.from(RuntimeEnvironment.application);
+    }
+
+    private AnimatedCheckBox inflate(int layoutId)
+    {
+        AnimatedCheckBox checkBox = (AnimatedCheckBox) inflater.inflate(layoutId, null);
+
+        int size = (int) (SIZE_DP * checkBox.getResources().getDisplayMetrics().density);
+        int spec = View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY);
+
+        checkBox.measure(spec, spec);
+        checkBox.layout(0, 0, checkBox.getMeasuredWidth(), checkBox.getMeasuredHeight());
+
+        canvas = new Canvas(Bitmap.createBitmap(checkBox.getWidth(), checkBox.getHeight(), Bitmap.Config.ARGB_8888));
+
+        return checkBox;
+    }
+
+    @Test
+    public void inflate()
+    {
+        measureInflate("AnimatedCheckBox inflate", R.layout.benchmark_check_box);
+    }
+
+    @Test
+    public void inflateFlat()
+    {
+        measureInflate("AnimatedCheckBox inflate (flat)", R.layout.benchmark_flat_check_box);
+    }
+
+    @Test
+    public void bind()
+    {
+        measureBind("AnimatedCheckBox.bindChecked", R.layout.benchmark_check_box);
+    }
+
+    @Test
+    public void bindFlat()
+    {
+        measureBind("AnimatedCheckBox.bindChecked (flat)", R.layout.benchmark_flat_check_box);
+    }
+
+    @Test
+    public void flip()
+    {
+        measureFlip("AnimatedCheckBox flip", R.layout.benchmark_check_box);
+    }
+
+    @Test
+    public void flipFlat()
+    {
+        measureFlip("AnimatedCheckBox flip (flat)", R.layout.benchmark_flat_check_box);
+    }
+
+    private void measureInflate(String name, final int layoutId)
+    {
+        Benchmark.measure(name, new Benchmark.Operation()
+        {
+            @Override
+            public void run(int iteration)
+            {
+                inflater.inflate(layoutId, null);
+            }
+        });
+    }
+
+    /**
+     * Binds the checkbox the way an adapter does, alternating the checked state and
+     * drawing it once.
+     */
+    private void measureBind(String name, int layoutId)
+    {
+        final AnimatedCheckBox checkBox = inflate(layoutId);
+
+        Benchmark.measure(name, new Benchmark.Operation()
+        {
+            @Override
+            public void run(int iteration)
+            {
+                checkBox.bindChecked((iteration & 1) == 0);
+                checkBox.draw(canvas);
+            }
+        });
+    }
+
+    /**
+     * Runs a whole animated flip, drawing the checkbox on every frame. Flips only animate
+     * while the checkbox is shown, so it is put in an activity first.
+     */
+    private void measureFlip(String name, int layoutId)
+    {
+        final AnimatedCheckBox checkBox = inflate(layoutId);
+
+        Activity activity = Robolectric.setupActivity(Activity.class);
+        activity.setContentView(checkBox, new ViewGroup.LayoutParams(checkBox.getWidth(), checkBox.getHeight()));
+
+        assertTrue("The checkbox is not shown.", checkBox.isShown());
+
+        Benchmark.measure(name, FLIP_WARMUP_ITERATIONS, FLIP_ITERATIONS, new Benchmark.Operation()
+        {
+            @Override
+            public void run(int iteration)
+            {
+                checkBox.setChecked(!checkBox.isChecked(), true);
+
+                int frames = 0;
+
+                while (Robolectric.getForegroundThreadScheduler().advanceToNextPostedRunnable())
+                {
+                    checkBox.draw(canvas);
+                    frames++;
+                }
+
+                assertTrue("The flip did not animate.", frames > 0);
+            }
+        });
+    }
+}
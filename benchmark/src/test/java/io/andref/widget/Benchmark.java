@@ -0,0 +1,79 @@
+package io.andref.widget;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Times an operation and counts the bytes it allocates on the calling thread, after
+ * running it enough times for the JIT to settle. Robolectric shadows the framework,
+ * so the numbers cover the library's own work rather than Skia's and are meant to be
+ * compared between revisions, not with a device.
+ */
+final class Benchmark
+{
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int MEASURED_ITERATIONS = 10000;
+
+    interface Operation
+    {
+        void run(int iteration);
+    }
+
+    private Benchmark()
+    {
+    }
+
+    /**
+     * Runs the operation and prints its mean time and allocation per iteration.
+     */
+    static void measure(String name, Operation operation)
+    {
+        measure(name, WARMUP_ITERATIONS, MEASURED_ITERATIONS, operation);
+    }
+
+    static void measure(String name, int warmupIterations, int iterations, Operation operation)
+    {
+        for (int i = 0; i < warmupIterations; i++)
+        {
+            operation.run(i);
+        }
+
+        long startBytes = allocatedBytes();
+        long startNanos = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++)
+        {
+            operation.run(i);
+        }
+
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = allocatedBytes() - startBytes;
+
+        System.out.println(String.format(Locale.US, "%-48s %12.1f ns/op %12s B/op",
+                name,
+                nanos / (double) iterations,
+                startBytes < 0 ? "n/a" : String.format(Locale.US, "%.1f", bytes / (double) iterations)));
+    }
+
+    /**
+     * The number of bytes allocated by the current thread so far, or -1 if the JVM
+     * cannot tell.
+     */
+    private static long allocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+            {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,148 @@
+package io.andref.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.ShapeDrawable;
+import android.graphics.drawable.shapes.OvalShape;
+import android.view.View;
+import io.andref.benchmark.BuildConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ShapedImageViewBenchmark
+{
+    private static final int SIZE = 96;
+
+    private Bitmap image;
+    private Canvas canvas;
+
+    @Before
+    public void setUp()
+    {
+        image = Bitmap.createBitmap(SIZE * 2, SIZE * 2, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    private ShapedImageView createView(boolean renderCacheEnabled)
+    {
+        ShapedImageView view = new ShapedImageView(RuntimeEnvironment.application);
+
+        view.beginUpdate();
+        view.setImageBitmap(image);
+        view.setRenderCacheEnabled(renderCacheEnabled);
+        view.setStrokeColor(0xFFFFFFFF);
+        view.setStrokeSize(4);
+        view.endUpdate();
+
+        layout(view, SIZE);
+
+        return view;
+    }
+
+    private static void layout(View view, int size)
+    {
+        int spec = View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY);
+
+        view.measure(spec, spec);
+        view.layout(0, 0, size, size);
+    }
+
+    @Test
+    public void draw()
+    {
+        final ShapedImageView view = createView(false);
+
+        Benchmark.measure("ShapedImageView.draw", new Benchmark.Operation()
+        {
+            @Override
+            public void run(int iteration)
+            {
+                view.draw(canvas);
+            }
+        });
+    }
+
+    @Test
+    public void drawRenderCache()
+    {
+        final ShapedImageView view = createView(true);
+
+        Benchmark.measure("ShapedImageView.draw (render cache)", new Benchmark.Operation()
+        {
+            @Override
+            public void run(int iteration)
+            {
+                view.draw(canvas);
+            }
+        });
+    }
+
+    /**
+     * Alternates between two sizes so that every layout runs initialize() and the
+     * following draw recomputes the geometry and shader matrix.
+     */
+    @Test
+    public void resize()
+    {
+        final ShapedImageView view = createView(false);
+
+        Benchmark.measure("ShapedImageView.initialize + draw", new Benchmark.Operation()
+        {
+            @Override
+            public void run(int iteration)
+            {
+                layout(view, SIZE - (iteration & 1));
+                view.draw(canvas);
+            }
+        });
+    }
+
+    /**
+     * Changes the stroke size of the drawable directly, without a view or an update,
+     * which marks the geometry dirty so that every draw recomputes the shader matrix.
+     */
+    @Test
+    public void updateShaderMatrix()
+    {
+        final ShapedDrawable drawable = new ShapedDrawable(RuntimeEnvironment.application.getResources()
+                .getDisplayMetrics().density);
+
+        drawable.setBitmap(image);
+        drawable.setBounds(0, 0, SIZE, SIZE);
+
+        Benchmark.measure("ShapedDrawable.updateShaderMatrix + draw", new Benchmark.Operation()
+        {
+            @Override
+            public void run(int iteration)
+            {
+                drawable.setStrokeSize(iteration & 1);
+                drawable.draw(canvas);
+            }
+        });
+    }
+
+    @Test
+    public void rasterise()
+    {
+        final ShapeDrawable shapeDrawable = new ShapeDrawable(new OvalShape());
+
+        shapeDrawable.setIntrinsicHeight(SIZE);
+        shapeDrawable.setIntrinsicWidth(SIZE);
+        shapeDrawable.getPaint().setColor(0xFF3F51B5);
+
+        Benchmark.measure("ShapedDrawable.rasterise (pooled)", new Benchmark.Operation()
+        {
+            @Override
+            public void run(int iteration)
+            {
+                BitmapPool.getInstance().put(ShapedDrawable.rasterise(shapeDrawable));
+            }
+        });
+    }
+}
@@ -1,39 +1,82 @@
 package io.andref.widget;
 
-import android.animation.Animator;
-import android.animation.AnimatorSet;
-import android.animation.ObjectAnimator;
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Camera;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
-import android.os.Bundle;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.animation.AccelerateInterpolator;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.widget.CheckBox;
+import android.widget.Checkable;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
-import android.widget.RelativeLayout;
 
-public class AnimatedCheckBox extends RelativeLayout
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+public class AnimatedCheckBox extends ViewGroup implements Checkable
 {
     private static final String TAG = "AnimatedCheckBox";
 
-    private static final String SELECTED = "selected";
-    private static final String SUPER = "super";
+    private static final int[] CHECKED_STATE_SET = { android.R.attr.state_checked };
 
     private static final int DEFAULT_CLICK_1_DURATION = 150;
     private static final int DEFAULT_CLICK_2_DURATION = 200;
 
-    /** The animations used to flip the compound view */
-    private AnimatorSet click1FlipAnimationSet;
-    private AnimatorSet click2FlipAnimationSet;
+    /**
+     * Every checkbox, held weakly, so that a single callback registered with the application
+     * can drop their back faces under memory pressure. Main thread only.
+     */
+    private static final Set<AnimatedCheckBox> INSTANCES =
+            Collections.newSetFromMap(new WeakHashMap<AnimatedCheckBox, Boolean>());
+
+    private static final ComponentCallbacks2 TRIM_CALLBACKS = new ComponentCallbacks2()
+    {
+        @Override
+        public void onTrimMemory(int level)
+        {
+            if (level >= TRIM_MEMORY_RUNNING_LOW)
+            {
+                releaseBackFaces();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig)
+        {
+        }
+
+        @Override
+        public void onLowMemory()
+        {
+            releaseBackFaces();
+        }
+    };
+
+    private static boolean isTrimCallbacksRegistered;
 
     private FrameLayout frameLayout1;
     private FrameLayout frameLayout2;
@@ -42,9 +85,86 @@ public class AnimatedCheckBox extends RelativeLayout
     private ShapedImageView shapedImageView1;
     private ShapedImageView shapedImageView2;
 
+    /** Flat mode: both faces and the icon are drawn by this view and flipped in onDraw */
+    private ShapedDrawable frontDrawable;
+    private ShapedDrawable backDrawable;
+    private Drawable iconDrawable;
+    private boolean isImagePending;
+
+    private final Camera camera = new Camera();
+    private final Matrix flipMatrix = new Matrix();
+
+    /** Rotation of each face in degrees, 90 being edge-on, and the scale and alpha of the icon */
+    private float frontAngle;
+    private float backAngle = 90;
+    private float iconScale;
+
+    /**
+     * Where the flip is, from 0 showing the front to 1 showing the back. A running flip
+     * moves it from flipStart to flipTarget; a toggle during a flip starts a new one
+     * from the current position, so the faces reverse instead of jumping.
+     */
+    private float flipPosition;
+    private float flipStart;
+    private float flipTarget;
+
+    /** The running flip, if any; its animator goes back to the FlipDriver pool when it ends */
+    private FlipDriver.Flip flip;
+
+    private final FlipDriver.Listener flipListener = new FlipDriver.Listener()
+    {
+        @Override
+        public void onFlipUpdate(float fraction)
+        {
+            WidgetMetrics.Listener metrics = WidgetMetrics.listener;
+
+            if (metrics != null)
+            {
+                reportDroppedFrames(metrics);
+            }
+
+            WidgetMetrics.beginSection("AnimatedCheckBox.flip");
+
+            flipPosition = flipStart + (flipTarget - flipStart) * fraction;
+            applyFlip();
+
+            WidgetMetrics.endSection();
+        }
+
+        @Override
+        public void onFlipEnd()
+        {
+            flip = null;
+            endFlipLayers();
+        }
+    };
+
+    /**
+     * Whether the faces are drawn into layers while they flip. The layered mode uses
+     * hardware layers on the two faces; the flat mode draws each face once into a
+     * pooled bitmap and only transforms that bitmap on each frame.
+     */
+    private boolean hasFlipLayers;
+    private Bitmap frontLayer;
+    private Bitmap backLayer;
+    private final Paint layerPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Time of the last flip frame, for reporting dropped frames; 0 before the first */
+    private long lastFlipFrameNanos;
+
+    /** Nesting depth of beginUpdate()/endUpdate() */
+    private int updateDepth;
+
+    private boolean checked;
+    private OnCheckedChangeListener onCheckedChangeListener;
+    private boolean isBroadcasting;
+    private boolean isPerformingClick;
+
     /** Styleable attributes */
     private boolean animated = true;
     private int fillColor = Color.GRAY;
+    private boolean flat;
+    private boolean flipLayersEnabled = true;
     private int iconHeight = 24;
     private int iconResource = R.drawable.ic_check_black_24dp;
     private int iconTint = Color.WHITE;
@@ -88,72 +208,122 @@ public class AnimatedCheckBox extends RelativeLayout
     @Override
     protected Parcelable onSaveInstanceState()
     {
-        Bundle bundle = new Bundle();
-
-        bundle.putBoolean(SELECTED, this.isSelected());
-        bundle.putParcelable(SUPER, super.onSaveInstanceState());
-
-        return bundle;
+        SavedState savedState = new SavedState(super.onSaveInstanceState());
+
+        // A running flip is saved as the face it is heading for.
+        savedState.flags = (isChecked() ? SavedState.FLAG_CHECKED : 0)
+                | (animated ? SavedState.FLAG_ANIMATED : 0)
+                | (flipLayersEnabled ? SavedState.FLAG_FLIP_LAYERS : 0);
+
+        savedState.fillColor = fillColor;
+        savedState.iconHeight = iconHeight;
+        savedState.iconResource = iconResource;
+        savedState.iconTint = iconTint;
+        savedState.iconWidth = iconWidth;
+        savedState.imageResource = imageResource;
+        savedState.shape = shape;
+        savedState.strokeColor = strokeColor;
+        savedState.strokeSize = strokeSize;
+        savedState.text = text;
+        savedState.textColor = textColor;
+        savedState.textSize = textSize;
+
+        return savedState;
     }
 
+    @Override
     protected void onRestoreInstanceState(Parcelable state)
     {
-        if (state instanceof Bundle)
-        {
-            Bundle bundle = (Bundle)state;
-
-            setSelected(bundle.getBoolean(SELECTED));
-            super.onRestoreInstanceState(bundle.getParcelable(SUPER));
-        }
-        else
+        if (!(state instanceof SavedState))
         {
             super.onRestoreInstanceState(state);
+            return;
         }
-    }
 
-    // endregion
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+
+        animated = (savedState.flags & SavedState.FLAG_ANIMATED) != 0;
+        fillColor = savedState.fillColor;
+        iconHeight = savedState.iconHeight;
+        iconResource = savedState.iconResource;
+        iconTint = savedState.iconTint;
+        iconWidth = savedState.iconWidth;
+        imageResource = savedState.imageResource;
+        shape = savedState.shape;
+        strokeColor = savedState.strokeColor;
+        strokeSize = savedState.strokeSize;
+        text = savedState.text;
+        textColor = savedState.textColor;
+        textSize = savedState.textSize;
+
+        setFlipLayersEnabled((savedState.flags & SavedState.FLAG_FLIP_LAYERS) != 0);
+        applyAttributes();
+
+        // Restoring is not a change made by the user, so the listener is not called.
+        bindChecked((savedState.flags & SavedState.FLAG_CHECKED) != 0);
+    }
 
-    private void initializeAnimations()
+    /**
+     * The faces are restored from this view's own state, so their state is neither saved
+     * nor restored. This also keeps the ids inside the faces from colliding between
+     * checkboxes in the same hierarchy.
+     */
+    @Override
+    protected void dispatchSaveInstanceState(SparseArray<Parcelable> container)
     {
-        Animator click1FrameLayout1Animator = ObjectAnimator.ofFloat(frameLayout1, View.ROTATION_Y, 0, 90);
-        click1FrameLayout1Animator.setDuration(DEFAULT_CLICK_1_DURATION);
+        dispatchFreezeSelfOnly(container);
+    }
 
-        Animator click1FrameLayout2Animator = ObjectAnimator.ofFloat(frameLayout2, View.ROTATION_Y, 90, 0);
-        click1FrameLayout2Animator.setDuration(DEFAULT_CLICK_1_DURATION);
+    @Override
+    protected void dispatchRestoreInstanceState(SparseArray<Parcelable> container)
+    {
+        dispatchThawSelfOnly(container);
+    }
 
-        AnimatorSet click1ImageViewAnimatorSet = new AnimatorSet();
-        click1ImageViewAnimatorSet.setDuration(200);
-        click1ImageViewAnimatorSet.playTogether(
-                ObjectAnimator.ofFloat(imageView, View.SCALE_X, 0, 1),
-                ObjectAnimator.ofFloat(imageView, View.SCALE_Y, 0, 1),
-                ObjectAnimator.ofFloat(imageView, View.ALPHA, 0, 1)
-        );
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
 
-        AnimatorSet click1FrameLayout2AnimatorSet = new AnimatorSet();
-        click1FrameLayout2AnimatorSet.playTogether(
-                click1FrameLayout2Animator,
-                click1ImageViewAnimatorSet
-        );
+        if (flat && isImagePending)
+        {
+            loadImage();
+        }
+    }
 
-        click1FlipAnimationSet = new AnimatorSet();
-        click1FlipAnimationSet.setInterpolator(new AccelerateInterpolator());
-        click1FlipAnimationSet.playSequentially(
-                click1FrameLayout1Animator,
-                click1FrameLayout2AnimatorSet
-        );
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        if (flip != null)
+        {
+            flip.end();
+        }
 
+        if (flat)
+        {
+            if (frontDrawable.isBitmapOwned())
+            {
+                frontDrawable.clearImage();
+                isImagePending = true;
+            }
+        }
 
-        click2FlipAnimationSet = new AnimatorSet();
-        click2FlipAnimationSet.setDuration(DEFAULT_CLICK_2_DURATION);
-        click2FlipAnimationSet.setInterpolator(new AccelerateInterpolator());
-        click2FlipAnimationSet.playSequentially(
-                ObjectAnimator.ofFloat(frameLayout2, View.ROTATION_Y, 0, 90),
-                ObjectAnimator.ofFloat(frameLayout1, View.ROTATION_Y, 90, 0)
-        );
+        super.onDetachedFromWindow();
     }
 
+    // endregion
+
     private void initializeViews(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes)
     {
+        if (!isTrimCallbacksRegistered)
+        {
+            context.getApplicationContext().registerComponentCallbacks(TRIM_CALLBACKS);
+            isTrimCallbacksRegistered = true;
+        }
+
+        INSTANCES.add(this);
+
         // Convert the default DP/SP size to real pixels.
         DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
 
@@ -169,6 +339,8 @@ public class AnimatedCheckBox extends RelativeLayout
         {
             animated = a.getBoolean(R.styleable.AnimatedCheckBox_acb_animate, animated);
             fillColor = a.getColor(R.styleable.AnimatedCheckBox_acb_fillColor, fillColor);
+            flat = a.getBoolean(R.styleable.AnimatedCheckBox_acb_flat, flat);
+            flipLayersEnabled = a.getBoolean(R.styleable.AnimatedCheckBox_acb_flipLayers, flipLayersEnabled);
             iconHeight = a.getDimensionPixelSize(R.styleable.AnimatedCheckBox_acb_iconHeight, iconHeight);
             iconResource = a.getResourceId(R.styleable.AnimatedCheckBox_acb_iconResource, iconResource);
             iconTint = a.getInt(R.styleable.AnimatedCheckBox_acb_iconTint, iconTint);
@@ -186,6 +358,23 @@ public class AnimatedCheckBox extends RelativeLayout
             a.recycle();
         }
 
+        // Clicks and accessibility focus go to the checkbox itself, never to a face.
+        setClickable(true);
+
+        if (flat)
+        {
+            frontDrawable = new ShapedDrawable(displayMetrics.density);
+            frontDrawable.setCallback(this);
+
+            // Keep the perspective of the flip the same as View.setRotationY() on any density.
+            camera.setLocation(0, 0, -8 * displayMetrics.density);
+
+            setWillNotDraw(false);
+
+            applyAttributes();
+            return;
+        }
+
         LayoutInflater inflater = (LayoutInflater) getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         inflater.inflate(R.layout.layout_check_view, this);
     }
@@ -195,44 +384,130 @@ public class AnimatedCheckBox extends RelativeLayout
     {
         super.onFinishInflate();
 
+        if (flat)
+        {
+            return;
+        }
+
         frameLayout1 = (FrameLayout) findViewById(R.id.frame_layout_1);
-        frameLayout1.setOnClickListener(new OnClickListener()
+        shapedImageView1 = (ShapedImageView) findViewById(R.id.shaped_image_view_1);
+
+
+        applyAttributes();
+    }
+
+    /**
+     * Creates the back face the first time the checkbox is checked.
+     * Most rows in a long list are never tapped, so they never pay for it.
+     */
+    private void ensureBackFace()
+    {
+        if (flat)
         {
-            @Override
-            public void onClick(View v)
+            if (backDrawable != null)
             {
-                AnimatedCheckBox.this.setSelected(true);
-
-                if (animated)
-                {
-                    click1FlipAnimationSet.start();
-                }
+                return;
             }
-        });
 
-        frameLayout2 = (FrameLayout) findViewById(R.id.frame_layout_2);
-        frameLayout2.setOnClickListener(new OnClickListener()
+            backDrawable = new ShapedDrawable(getResources().getDisplayMetrics().density);
+            backDrawable.setBounds(frontDrawable.getBounds());
+            backDrawable.setCallback(this);
+            backDrawable.setFillColor(fillColor);
+            backDrawable.setShape(shape);
+
+            loadIcon();
+            return;
+        }
+
+        if (frameLayout2 != null)
         {
-            @Override
-            public void onClick(View v)
+            return;
+        }
+
+        LayoutInflater inflater = (LayoutInflater) getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+
+        frameLayout2 = (FrameLayout) inflater.inflate(R.layout.layout_check_view_back, this, false);
+
+        // Image contained inside the back side of the compound view.
+        imageView = (ImageView) frameLayout2.findViewById(R.id.image_view);
+        imageView.getLayoutParams().height = iconHeight;
+        imageView.getLayoutParams().width = iconWidth;
+        imageView.setImageResource(iconResource);
+        imageView.setColorFilter(iconTint);
+
+        shapedImageView2 = (ShapedImageView) frameLayout2.findViewById(R.id.shaped_image_view_2);
+        shapedImageView2.beginUpdate();
+        shapedImageView2.setFillColor(fillColor);
+        shapedImageView2.setShape(shape);
+
+        // Stay within an update that is already open so that it stays balanced.
+        if (updateDepth == 0)
+        {
+            shapedImageView2.endUpdate();
+        }
+
+        // Behind the front face.
+        addView(frameLayout2, 0);
+        applyFlip();
+    }
+
+    /**
+     * Drops the back faces of the checkboxes showing their front under memory pressure.
+     */
+    private static void releaseBackFaces()
+    {
+        for (AnimatedCheckBox checkBox : INSTANCES)
+        {
+            checkBox.releaseBackFace();
+        }
+    }
+
+    /**
+     * Drops the back face again while the front is showing.
+     */
+    private void releaseBackFace()
+    {
+        if (checked || updateDepth > 0 || flip != null)
+        {
+            return;
+        }
+
+        if (flat)
+        {
+            if (backDrawable == null)
             {
-                AnimatedCheckBox.this.setSelected(false);
+                return;
+            }
 
-                if (animated)
-                {
-                    click2FlipAnimationSet.start();
-                }
+            backDrawable.setCallback(null);
+            backDrawable = null;
+
+            if (iconDrawable != null)
+            {
+                iconDrawable.setCallback(null);
+                iconDrawable = null;
             }
-        });
 
-        // Image contained inside the back side of the compound view.
-        imageView = (ImageView) findViewById(R.id.image_view);
+            return;
+        }
 
-        shapedImageView1 = (ShapedImageView) findViewById(R.id.shaped_image_view_1);
-        shapedImageView2 = (ShapedImageView) findViewById(R.id.shaped_image_view_2);
+        if (frameLayout2 == null)
+        {
+            return;
+        }
 
+        removeView(frameLayout2);
 
+        frameLayout2 = null;
+        imageView = null;
+        shapedImageView2 = null;
+    }
+
+    private void applyAttributes()
+    {
         // Set styleable attributes.
+        beginUpdate();
+
         setAnimated(animated);
         setFillColor(fillColor);
         setIconHeight(iconHeight);
@@ -247,168 +522,922 @@ public class AnimatedCheckBox extends RelativeLayout
         setTextColor(textColor);
         setTextSize(textSize);
 
+        endUpdate();
+    }
+
+    /**
+     * Both faces take the size of the checkbox. Unless the checkbox has an exact size,
+     * the front face is measured once for its content and the back is never measured
+     * for content at all, so there is no second pass as in RelativeLayout. Either way
+     * the checkbox is at least large enough to show the icon inside the stroke.
+     */
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+    {
+        int paddingHeight = getPaddingTop() + getPaddingBottom();
+        int paddingWidth = getPaddingLeft() + getPaddingRight();
+
+        // The smallest size that shows the whole icon inside the stroke.
+        int contentHeight = iconHeight + strokeSize * 2;
+        int contentWidth = iconWidth + strokeSize * 2;
+        int childState = 0;
+
+        boolean isExact = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY
+                && MeasureSpec.getMode(heightMeasureSpec) == MeasureSpec.EXACTLY;
 
-        if (animated)
+        if (!flat && !isExact)
         {
-            initializeAnimations();
+            frameLayout1.measure(
+                    getChildMeasureSpec(widthMeasureSpec, paddingWidth, LayoutParams.WRAP_CONTENT),
+                    getChildMeasureSpec(heightMeasureSpec, paddingHeight, LayoutParams.WRAP_CONTENT));
+
+            // The front face measures its image, which may be smaller than the icon or missing.
+            contentHeight = Math.max(contentHeight, frameLayout1.getMeasuredHeight());
+            contentWidth = Math.max(contentWidth, frameLayout1.getMeasuredWidth());
+            childState = frameLayout1.getMeasuredState();
         }
-    }
 
-    // region Getters/Setters
+        setMeasuredDimension(
+                resolveSizeAndState(Math.max(contentWidth + paddingWidth, getSuggestedMinimumWidth()),
+                        widthMeasureSpec, childState),
+                resolveSizeAndState(Math.max(contentHeight + paddingHeight, getSuggestedMinimumHeight()),
+                        heightMeasureSpec, childState << MEASURED_HEIGHT_STATE_SHIFT));
 
-    @Override
-    public void setLayoutParams(ViewGroup.LayoutParams params)
-    {
+        if (flat)
+        {
+            return;
+        }
 
-        frameLayout1.getLayoutParams().height = params.height;
-        frameLayout1.getLayoutParams().width = params.width;
+        int faceHeightSpec = MeasureSpec.makeMeasureSpec(
+                Math.max(0, getMeasuredHeight() - paddingHeight), MeasureSpec.EXACTLY);
+        int faceWidthSpec = MeasureSpec.makeMeasureSpec(
+                Math.max(0, getMeasuredWidth() - paddingWidth), MeasureSpec.EXACTLY);
 
-        frameLayout2.getLayoutParams().height = params.height;
-        frameLayout2.getLayoutParams().width = params.width;
+        frameLayout1.measure(faceWidthSpec, faceHeightSpec);
 
-        super.setLayoutParams(params);
+        if (frameLayout2 != null)
+        {
+            frameLayout2.measure(faceWidthSpec, faceHeightSpec);
+        }
     }
 
-    public boolean isAnimated()
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b)
     {
-        return animated;
+        if (flat)
+        {
+            return;
+        }
+
+        layoutFace(frameLayout1);
+        layoutFace(frameLayout2);
     }
 
-    public void setAnimated(boolean animated)
+    private void layoutFace(View face)
     {
-        this.animated = animated;
-        invalidate();
+        if (face != null)
+        {
+            face.layout(getPaddingLeft(), getPaddingTop(),
+                    getPaddingLeft() + face.getMeasuredWidth(), getPaddingTop() + face.getMeasuredHeight());
+        }
     }
 
-    public int getFillColor()
+    @Override
+    public boolean shouldDelayChildPressedState()
     {
-        return fillColor;
+        return false;
     }
 
-    public void setFillColor(int fillColor)
+    /**
+     * Defers the work done by setters on this view and both faces until the matching
+     * {@link #endUpdate()}, so that binding a row invalidates each view once. Calls may
+     * be nested.
+     */
+    public void beginUpdate()
     {
-        this.fillColor = fillColor;
+        if (updateDepth++ == 0 && !flat)
+        {
+            shapedImageView1.beginUpdate();
 
-        shapedImageView2.setFillColor(fillColor);
-        invalidate();
+            if (shapedImageView2 != null)
+            {
+                shapedImageView2.beginUpdate();
+            }
+        }
     }
 
-    public int getIconHeight()
+    public void endUpdate()
     {
-        return iconHeight;
-    }
+        if (updateDepth == 0)
+        {
+            throw new IllegalStateException("endUpdate() called without beginUpdate().");
+        }
 
-    public void setIconHeight(int iconHeight)
-    {
-        this.iconHeight = iconHeight;
+        if (--updateDepth == 0)
+        {
+            if (!flat)
+            {
+                shapedImageView1.endUpdate();
 
-        imageView.getLayoutParams().height = iconHeight;
-        invalidate();
+                if (shapedImageView2 != null)
+                {
+                    shapedImageView2.endUpdate();
+                }
+            }
+
+            invalidate();
+        }
     }
 
-    public int getIconResource()
+    private void invalidateUnlessUpdating()
     {
-        return iconResource;
+        if (updateDepth == 0)
+        {
+            invalidate();
+        }
     }
 
-    public void setIconResource(int iconResource)
+    private void applyChecked(boolean checked, boolean animate)
     {
-        this.iconResource = iconResource;
+        if (checked)
+        {
+            ensureBackFace();
+        }
 
-        imageView.setImageResource(iconResource);
-        invalidate();
-    }
+        if (this.checked != checked)
+        {
+            this.checked = checked;
+            refreshDrawableState();
+        }
 
-    public int getIconTint()
-    {
-        return iconTint;
-    }
+        float target = checked ? 1 : 0;
 
-    public void setIconTint(int iconTint)
-    {
-        this.iconTint = iconTint;
+        if (animate)
+        {
+            animateFlipTo(target);
+            return;
+        }
 
-        imageView.setColorFilter(iconTint);
-        invalidate();
-    }
+        if (flip != null)
+        {
+            flip.cancel();
+            flip = null;
+        }
 
-    public int getIconWidth()
-    {
-        return iconWidth;
+        endFlipLayers();
+
+        flipPosition = target;
+        applyFlip();
     }
 
-    public void setIconWidth(int iconWidth)
+    private void notifyCheckedChanged()
     {
-        this.iconWidth = iconWidth;
+        // A listener that changes the state again is not called back recursively.
+        if (isBroadcasting || onCheckedChangeListener == null)
+        {
+            return;
+        }
 
-        imageView.getLayoutParams().width = iconWidth;
-        invalidate();
+        isBroadcasting = true;
+        onCheckedChangeListener.onCheckedChanged(this, isChecked());
+        isBroadcasting = false;
     }
 
-    public int getImageResource()
+    @Override
+    public void onInitializeAccessibilityEvent(AccessibilityEvent event)
     {
-        return imageResource;
+        super.onInitializeAccessibilityEvent(event);
+
+        event.setClassName(CheckBox.class.getName());
+        event.setChecked(checked);
     }
 
-    public void setImageResource(int imageResource)
+    @Override
+    public void onInitializeAccessibilityNodeInfo(AccessibilityNodeInfo info)
     {
-        this.imageResource = imageResource;
+        super.onInitializeAccessibilityNodeInfo(info);
 
-        shapedImageView1.setImageResource(imageResource);
-        invalidate();
+        info.setClassName(CheckBox.class.getName());
+        info.setCheckable(true);
+        info.setChecked(checked);
     }
 
-    public int getShape()
+    @Override
+    protected int[] onCreateDrawableState(int extraSpace)
     {
-        return shape;
-    }
+        final int[] drawableState = super.onCreateDrawableState(extraSpace + 1);
 
-    public void setShape(int shape)
-    {
-        this.shape = shape;
+        if (isChecked())
+        {
+            mergeDrawableStates(drawableState, CHECKED_STATE_SET);
+        }
 
-        shapedImageView1.setShape(shape);
-        shapedImageView2.setShape(shape);
-        invalidate();
+        return drawableState;
     }
 
-    public int getStrokeColor()
+    /**
+     * Moves the flip towards a face from wherever it is. Repeated toggles towards the
+     * face the flip is already heading for are ignored, and a reversal reuses the one
+     * flip slot, so a checkbox never runs more than one animator.
+     */
+    private void animateFlipTo(float target)
     {
-        return strokeColor;
-    }
+        if (flip != null)
+        {
+            if (flipTarget == target)
+            {
+                return;
+            }
 
-    public void setStrokeColor(int strokeColor)
-    {
-        this.strokeColor = strokeColor;
+            flip.cancel();
+            flip = null;
+        }
 
-        shapedImageView1.setStrokeColor(strokeColor);
-        invalidate();
-    }
+        if (flipPosition == target)
+        {
+            return;
+        }
 
-    public int getStrokeSize()
-    {
-        return strokeSize;
-    }
+        flipStart = flipPosition;
+        flipTarget = target;
 
-    public void setStrokeSize(int strokeSize)
-    {
-        this.strokeSize = strokeSize;
+        startFlipLayers();
+        lastFlipFrameNanos = 0;
 
-        shapedImageView1.setStrokeSize(strokeSize);
-        invalidate();
+        // A reversal only has to cover the distance already travelled.
+        long duration = target > flipStart ? DEFAULT_CLICK_1_DURATION * 2 : DEFAULT_CLICK_2_DURATION * 2;
+        flip = FlipDriver.start((long) (duration * Math.abs(target - flipStart)), flipListener);
     }
 
-    public String getText()
+    /**
+     * Reports the vsyncs missed since the previous frame of the flip.
+     */
+    private void reportDroppedFrames(WidgetMetrics.Listener metrics)
     {
-        return text;
-    }
+        long now = System.nanoTime();
+
+        if (lastFlipFrameNanos != 0)
+        {
+            int droppedFrames = (int) ((now - lastFlipFrameNanos) / WidgetMetrics.FRAME_INTERVAL_NANOS) - 1;
+
+            if (droppedFrames > 0)
+            {
+                metrics.onFramesDropped(this, droppedFrames);
+            }
+        }
+
+        lastFlipFrameNanos = now;
+    }
+
+    /**
+     * Turns the flip position into the angle of each face: the front turns edge-on over
+     * the first half and the back turns in over the second, each half accelerating
+     * away from the front.
+     */
+    private void applyFlip()
+    {
+        float first = Math.min(1, flipPosition * 2);
+        float second = Math.max(0, flipPosition * 2 - 1);
+
+        // AccelerateInterpolator's default curve for each half.
+        frontAngle = 90 * first * first;
+        backAngle = 90 - 90 * second * second;
+        iconScale = second * second;
+
+        if (flat)
+        {
+            invalidate();
+            return;
+        }
+
+        if (frameLayout1 != null)
+        {
+            frameLayout1.setRotationY(frontAngle);
+        }
+
+        if (frameLayout2 != null)
+        {
+            frameLayout2.setRotationY(backAngle);
+
+            imageView.setAlpha(iconScale);
+            imageView.setScaleX(iconScale);
+            imageView.setScaleY(iconScale);
+        }
+    }
+
+    private void startFlipLayers()
+    {
+        if (!flipLayersEnabled || hasFlipLayers)
+        {
+            return;
+        }
+
+        hasFlipLayers = true;
+
+        // The flat mode draws its layers on the next frame.
+        if (!flat)
+        {
+            frameLayout1.setLayerType(LAYER_TYPE_HARDWARE, null);
+
+            if (frameLayout2 != null)
+            {
+                frameLayout2.setLayerType(LAYER_TYPE_HARDWARE, null);
+            }
+        }
+    }
+
+    private void endFlipLayers()
+    {
+        if (!hasFlipLayers)
+        {
+            return;
+        }
+
+        hasFlipLayers = false;
+
+        if (flat)
+        {
+            releaseLayerBitmaps();
+            invalidate();
+        }
+        else
+        {
+            frameLayout1.setLayerType(LAYER_TYPE_NONE, null);
+
+            if (frameLayout2 != null)
+            {
+                frameLayout2.setLayerType(LAYER_TYPE_NONE, null);
+            }
+        }
+    }
+
+    @Override
+    public boolean performClick()
+    {
+        // The click event sent by View announces the new state.
+        isPerformingClick = true;
+        toggle();
+        isPerformingClick = false;
+
+        return super.performClick();
+    }
+
+    // region Flat Mode
+
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        super.onDraw(canvas);
+
+        if (!flat)
+        {
+            return;
+        }
+
+        WidgetMetrics.Listener metrics = WidgetMetrics.listener;
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        WidgetMetrics.beginSection("AnimatedCheckBox.draw");
+
+        if (hasFlipLayers && frontLayer == null)
+        {
+            frontLayer = drawLayer(frontDrawable);
+            backLayer = drawLayer(backDrawable);
+        }
+
+        drawFace(canvas, frontDrawable, frontLayer, frontAngle, 0);
+        drawFace(canvas, backDrawable, backLayer, backAngle, iconScale);
+
+        WidgetMetrics.endSection();
+
+        if (metrics != null)
+        {
+            metrics.onDraw(this, System.nanoTime() - start);
+        }
+    }
+
+    private Bitmap drawLayer(ShapedDrawable face)
+    {
+        Rect bounds = face != null ? face.getBounds() : null;
+
+        if (bounds == null || bounds.isEmpty())
+        {
+            return null;
+        }
+
+        Bitmap layer = BitmapPool.getInstance().get(bounds.width(), bounds.height(), ShapedDrawable.BITMAP_CONFIG);
+        Canvas canvas = new Canvas(layer);
+
+        canvas.translate(-bounds.left, -bounds.top);
+        face.draw(canvas);
+
+        return layer;
+    }
+
+    private void releaseLayerBitmaps()
+    {
+        BitmapPool.getInstance().put(frontLayer);
+        BitmapPool.getInstance().put(backLayer);
+
+        frontLayer = null;
+        backLayer = null;
+    }
+
+    private void drawFace(Canvas canvas, ShapedDrawable face, Bitmap layer, float angle, float iconScale)
+    {
+        if (face == null || angle >= 90)
+        {
+            return;
+        }
+
+        Rect bounds = face.getBounds();
+        int saveCount = canvas.save();
+
+        if (angle > 0)
+        {
+            camera.save();
+            camera.rotateY(angle);
+            camera.getMatrix(flipMatrix);
+            camera.restore();
+
+            flipMatrix.preTranslate(-bounds.exactCenterX(), -bounds.exactCenterY());
+            flipMatrix.postTranslate(bounds.exactCenterX(), bounds.exactCenterY());
+
+            canvas.concat(flipMatrix);
+        }
+
+        if (layer != null)
+        {
+            canvas.drawBitmap(layer, bounds.left, bounds.top, layerPaint);
+        }
+        else
+        {
+            face.draw(canvas);
+        }
+
+        if (iconDrawable != null && iconScale > 0)
+        {
+            canvas.scale(iconScale, iconScale, bounds.exactCenterX(), bounds.exactCenterY());
+
+            iconDrawable.setAlpha((int) (0xFF * iconScale));
+            iconDrawable.draw(canvas);
+        }
+
+        canvas.restoreToCount(saveCount);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh)
+    {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        if (flat)
+        {
+            frontDrawable.setBounds(getPaddingLeft(), getPaddingTop(), w - getPaddingRight(), h - getPaddingBottom());
+
+            if (backDrawable != null)
+            {
+                backDrawable.setBounds(frontDrawable.getBounds());
+                updateIconBounds();
+            }
+
+            if (imageResource != 0)
+            {
+                loadImage();
+            }
+        }
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable drawable)
+    {
+        return drawable == frontDrawable || drawable == backDrawable || drawable == iconDrawable
+                || super.verifyDrawable(drawable);
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable drawable)
+    {
+        if (flat)
+        {
+            // Faces that change while flipping are drawn into new layers.
+            if (frontLayer != null && drawable != iconDrawable)
+            {
+                releaseLayerBitmaps();
+            }
+
+            invalidateUnlessUpdating();
+            return;
+        }
+
+        super.invalidateDrawable(drawable);
+    }
+
+    private void updateIconBounds()
+    {
+        if (iconDrawable == null)
+        {
+            return;
+        }
+
+        Rect bounds = frontDrawable.getBounds();
+        int left = bounds.centerX() - iconWidth / 2;
+        int top = bounds.centerY() - iconHeight / 2;
+
+        iconDrawable.setBounds(left, top, left + iconWidth, top + iconHeight);
+    }
+
+    private void loadIcon()
+    {
+        if (iconDrawable != null)
+        {
+            iconDrawable.setCallback(null);
+        }
+
+        iconDrawable = iconResource != 0 ? getDrawable(iconResource).mutate() : null;
+
+        if (iconDrawable != null)
+        {
+            iconDrawable.setCallback(this);
+            iconDrawable.setColorFilter(iconTint, PorterDuff.Mode.SRC_ATOP);
+            updateIconBounds();
+        }
+    }
+
+    /**
+     * Decodes the image to the size of the front face, or shows the drawable itself if
+     * the resource is not a bitmap.
+     */
+    private void loadImage()
+    {
+        isImagePending = false;
+
+        if (imageResource == 0)
+        {
+            frontDrawable.clearImage();
+            return;
+        }
+
+        RectF drawableRect = frontDrawable.getDrawableRect();
+
+        if (drawableRect.isEmpty())
+        {
+            isImagePending = true;
+            return;
+        }
+
+        int width = (int) Math.ceil(drawableRect.width());
+        int height = (int) Math.ceil(drawableRect.height());
+
+        ImageSource source = ImageSource.of(imageResource);
+        // The faces are drawn into software layers while they flip.
+        Bitmap.Config config = BitmapDecoder.softwareConfig(ShapedImageView.getDefaultBitmapConfig());
+        ImageCache.Key key = ImageCache.key(source, width, height, config, shape, strokeSize);
+
+        Bitmap bitmap = ImageLoader.loadNow(getContext(), source, key, width, height, config);
+
+        if (bitmap != null)
+        {
+            frontDrawable.setBitmap(bitmap, source);
+        }
+        else
+        {
+            frontDrawable.setImageDrawable(getDrawable(imageResource));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private Drawable getDrawable(int resId)
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+        {
+            return getResources().getDrawable(resId, getContext().getTheme());
+        }
+
+        return getResources().getDrawable(resId);
+    }
+
+    // endregion
+
+    // region Getters/Setters
+
+    @Override
+    public boolean isChecked()
+    {
+        return checked;
+    }
+
+    @Override
+    public void setChecked(boolean checked)
+    {
+        setChecked(checked, false);
+    }
+
+    /**
+     * Checks or unchecks the checkbox and notifies the listener if the state changed. With
+     * {@code animate} the checkbox flips to the matching face, but only if animations are
+     * enabled and it is showing; otherwise it jumps there.
+     */
+    public void setChecked(boolean checked, boolean animate)
+    {
+        boolean changed = checked != isChecked();
+
+        applyChecked(checked, animate && animated && isShown());
+
+        if (changed)
+        {
+            if (!isPerformingClick)
+            {
+                sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED);
+            }
+
+            notifyCheckedChanged();
+        }
+    }
+
+    /**
+     * Shows the given state without notifying the listener or animating, and cancels a
+     * flip left over from a previous binding. Adapters should use this when binding a
+     * recycled row or applying a select-all to the rows on screen, keeping the checked
+     * state of off-screen rows in the adapter.
+     */
+    public void bindChecked(boolean checked)
+    {
+        applyChecked(checked, false);
+    }
+
+    /**
+     * Flips to the other face, animated if animations are enabled.
+     */
+    @Override
+    public void toggle()
+    {
+        setChecked(!isChecked(), animated);
+    }
+
+    public OnCheckedChangeListener getOnCheckedChangeListener()
+    {
+        return onCheckedChangeListener;
+    }
+
+    public void setOnCheckedChangeListener(OnCheckedChangeListener onCheckedChangeListener)
+    {
+        this.onCheckedChangeListener = onCheckedChangeListener;
+    }
+
+    public boolean isAnimated()
+    {
+        return animated;
+    }
+
+    public void setAnimated(boolean animated)
+    {
+        this.animated = animated;
+        invalidateUnlessUpdating();
+    }
+
+    public int getFillColor()
+    {
+        return fillColor;
+    }
+
+    public void setFillColor(int fillColor)
+    {
+        this.fillColor = fillColor;
+
+        if (backDrawable != null)
+        {
+            backDrawable.setFillColor(fillColor);
+        }
+        else if (shapedImageView2 != null)
+        {
+            shapedImageView2.setFillColor(fillColor);
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public boolean isFlipLayersEnabled()
+    {
+        return flipLayersEnabled;
+    }
+
+    /**
+     * When enabled (the default), the faces are drawn into layers for the duration of a
+     * flip so that each frame only transforms them instead of redrawing the image, stroke
+     * and text. Turn it off on devices where allocating the layers costs more than it saves.
+     */
+    public void setFlipLayersEnabled(boolean flipLayersEnabled)
+    {
+        if (!flipLayersEnabled)
+        {
+            endFlipLayers();
+        }
+
+        this.flipLayersEnabled = flipLayersEnabled;
+
+        if (flipLayersEnabled && flip != null)
+        {
+            startFlipLayers();
+        }
+    }
+
+    /**
+     * Whether the checkbox draws both faces itself instead of inflating a view for each.
+     * Set with {@code app:acb_flat}; a flat checkbox is a single view with no children.
+     */
+    public boolean isFlat()
+    {
+        return flat;
+    }
+
+    public int getIconHeight()
+    {
+        return iconHeight;
+    }
+
+    public void setIconHeight(int iconHeight)
+    {
+        this.iconHeight = iconHeight;
+
+        if (flat)
+        {
+            updateIconBounds();
+        }
+        else if (imageView != null)
+        {
+            imageView.getLayoutParams().height = iconHeight;
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public int getIconResource()
+    {
+        return iconResource;
+    }
+
+    public void setIconResource(int iconResource)
+    {
+        this.iconResource = iconResource;
+
+        if (backDrawable != null)
+        {
+            loadIcon();
+        }
+        else if (imageView != null)
+        {
+            imageView.setImageResource(iconResource);
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public int getIconTint()
+    {
+        return iconTint;
+    }
+
+    public void setIconTint(int iconTint)
+    {
+        this.iconTint = iconTint;
+
+        if (iconDrawable != null)
+        {
+            iconDrawable.setColorFilter(iconTint, PorterDuff.Mode.SRC_ATOP);
+        }
+        else if (imageView != null)
+        {
+            imageView.setColorFilter(iconTint);
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public int getIconWidth()
+    {
+        return iconWidth;
+    }
+
+    public void setIconWidth(int iconWidth)
+    {
+        this.iconWidth = iconWidth;
+
+        if (flat)
+        {
+            updateIconBounds();
+        }
+        else if (imageView != null)
+        {
+            imageView.getLayoutParams().width = iconWidth;
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public int getImageResource()
+    {
+        return imageResource;
+    }
+
+    public void setImageResource(int imageResource)
+    {
+        this.imageResource = imageResource;
+
+        if (flat)
+        {
+            loadImage();
+        }
+        else
+        {
+            shapedImageView1.setImageResource(imageResource);
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public int getShape()
+    {
+        return shape;
+    }
+
+    public void setShape(int shape)
+    {
+        this.shape = shape;
+
+        if (flat)
+        {
+            frontDrawable.setShape(shape);
+
+            if (backDrawable != null)
+            {
+                backDrawable.setShape(shape);
+            }
+        }
+        else
+        {
+            shapedImageView1.setShape(shape);
+
+            if (shapedImageView2 != null)
+            {
+                shapedImageView2.setShape(shape);
+            }
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public int getStrokeColor()
+    {
+        return strokeColor;
+    }
+
+    public void setStrokeColor(int strokeColor)
+    {
+        this.strokeColor = strokeColor;
+
+        if (flat)
+        {
+            frontDrawable.setStrokeColor(strokeColor);
+        }
+        else
+        {
+            shapedImageView1.setStrokeColor(strokeColor);
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public int getStrokeSize()
+    {
+        return strokeSize;
+    }
+
+    public void setStrokeSize(int strokeSize)
+    {
+        this.strokeSize = strokeSize;
+
+        if (flat)
+        {
+            frontDrawable.setStrokeSize(strokeSize);
+        }
+        else
+        {
+            shapedImageView1.setStrokeSize(strokeSize);
+        }
+        invalidateUnlessUpdating();
+    }
+
+    public String getText()
+    {
+        return text;
+    }
 
     public void setText(String text)
     {
         this.text = text;
 
-        shapedImageView1.setText(text);
-        invalidate();
+        if (flat)
+        {
+            frontDrawable.setText(text);
+        }
+        else
+        {
+            shapedImageView1.setText(text);
+        }
+        invalidateUnlessUpdating();
     }
 
     public int getTextColor()
@@ -420,8 +1449,15 @@ public class AnimatedCheckBox extends RelativeLayout
     {
         this.textColor = textColor;
 
-        shapedImageView1.setTextColor(textColor);
-        invalidate();
+        if (flat)
+        {
+            frontDrawable.setTextColor(textColor);
+        }
+        else
+        {
+            shapedImageView1.setTextColor(textColor);
+        }
+        invalidateUnlessUpdating();
     }
 
     public int getTextSize()
@@ -433,8 +1469,15 @@ public class AnimatedCheckBox extends RelativeLayout
     {
         this.textSize = textSize;
 
-        shapedImageView1.setTextSize(textSize);
-        invalidate();
+        if (flat)
+        {
+            frontDrawable.setTextSize(textSize);
+        }
+        else
+        {
+            shapedImageView1.setTextSize(textSize);
+        }
+        invalidateUnlessUpdating();
     }
 
     public Typeface getTypeface()
@@ -446,9 +1489,107 @@ public class AnimatedCheckBox extends RelativeLayout
     {
         this.typeface = typeface;
 
-        shapedImageView1.setTypeface(typeface);
-        invalidate();
+        if (flat)
+        {
+            frontDrawable.setTypeface(typeface);
+        }
+        else
+        {
+            shapedImageView1.setTypeface(typeface);
+        }
+        invalidateUnlessUpdating();
     }
 
     // endregion
-}
\ No newline at end of file
+
+    public interface OnCheckedChangeListener
+    {
+        /** Called when the checked state changed, whether or not the change was animated. */
+        void onCheckedChanged(AnimatedCheckBox checkBox, boolean isChecked);
+    }
+
+    /**
+     * Holds the checked state and every attribute that can be changed at runtime, except
+     * the typeface, which cannot be parcelled. Written as plain ints rather than a Bundle
+     * so that saving hundreds of checkboxes stays cheap.
+     */
+    static class SavedState extends BaseSavedState
+    {
+        private static final int FLAG_CHECKED = 1;
+        private static final int FLAG_ANIMATED = 1 << 1;
+        private static final int FLAG_FLIP_LAYERS = 1 << 2;
+
+        private int flags;
+        private int fillColor;
+        private int iconHeight;
+        private int iconResource;
+        private int iconTint;
+        private int iconWidth;
+        private int imageResource;
+        private int shape;
+        private int strokeColor;
+        private int strokeSize;
+        private String text;
+        private int textColor;
+        private int textSize;
+
+        SavedState(Parcelable superState)
+        {
+            super(superState);
+        }
+
+        private SavedState(Parcel in)
+        {
+            super(in);
+
+            flags = in.readInt();
+            fillColor = in.readInt();
+            iconHeight = in.readInt();
+            iconResource = in.readInt();
+            iconTint = in.readInt();
+            iconWidth = in.readInt();
+            imageResource = in.readInt();
+            shape = in.readInt();
+            strokeColor = in.readInt();
+            strokeSize = in.readInt();
+            text = in.readString();
+            textColor = in.readInt();
+            textSize = in.readInt();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags)
+        {
+            super.writeToParcel(out, flags);
+
+            out.writeInt(this.flags);
+            out.writeInt(fillColor);
+            out.writeInt(iconHeight);
+            out.writeInt(iconResource);
+            out.writeInt(iconTint);
+            out.writeInt(iconWidth);
+            out.writeInt(imageResource);
+            out.writeInt(shape);
+            out.writeInt(strokeColor);
+            out.writeInt(strokeSize);
+            out.writeString(text);
+            out.writeInt(textColor);
+            out.writeInt(textSize);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>()
+        {
+            @Override
+            public SavedState createFromParcel(Parcel in)
+            {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size)
+            {
+                return new SavedState[size];
+            }
+        };
+    }
+}
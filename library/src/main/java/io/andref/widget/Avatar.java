@@ -0,0 +1,81 @@
+package io.andref.widget;
+
+/**
+ * Derives the fill color and initials of an avatar from a name or id without allocating,
+ * so that binding a row only copies a couple of chars.
+ */
+final class Avatar
+{
+    /** Material 500 colors, all dark enough for white initials */
+    static final int[] DEFAULT_PALETTE = {
+            0xFFF44336, 0xFFE91E63, 0xFF9C27B0, 0xFF673AB7, 0xFF3F51B5,
+            0xFF2196F3, 0xFF039BE5, 0xFF0097A7, 0xFF009688, 0xFF43A047,
+            0xFF689F38, 0xFFEF6C00, 0xFFFF5722, 0xFF795548, 0xFF607D8B
+    };
+
+    static final int MAX_INITIALS = 2;
+
+    private Avatar()
+    {
+    }
+
+    /**
+     * Same as {@link String#hashCode()}, for any CharSequence.
+     */
+    static int hash(CharSequence name)
+    {
+        int hash = 0;
+
+        for (int i = 0, length = name.length(); i < length; i++)
+        {
+            hash = 31 * hash + name.charAt(i);
+        }
+
+        return hash;
+    }
+
+    static int hash(long id)
+    {
+        return (int) (id ^ (id >>> 32));
+    }
+
+    static int color(int hash, int[] palette)
+    {
+        return palette[(hash & Integer.MAX_VALUE) % palette.length];
+    }
+
+    /**
+     * Writes the upper-cased first letter or digit of the first and last words of the name
+     * into {@code out}, which must hold {@link #MAX_INITIALS} chars, and returns how many
+     * were written. Words starting with a surrogate pair are skipped.
+     */
+    static int initials(CharSequence name, char[] out)
+    {
+        int count = 0;
+        boolean isWordStart = true;
+
+        for (int i = 0, length = name.length(); i < length; i++)
+        {
+            char c = name.charAt(i);
+
+            if (Character.isWhitespace(c))
+            {
+                isWordStart = true;
+            }
+            else if (isWordStart && Character.isHighSurrogate(c))
+            {
+                // A letter or emoji outside the BMP does not fit in a char, so the word gets no initial.
+                isWordStart = false;
+            }
+            else if (isWordStart && Character.isLetterOrDigit(c))
+            {
+                // Later words replace the second initial, so it ends up being the last word's.
+                out[count == 0 ? 0 : 1] = Character.toUpperCase(c);
+                count = count == 0 ? 1 : 2;
+                isWordStart = false;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,392 @@
+package io.andref.widget;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.TypedValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes an {@link ImageSource} no larger than it needs to be to fill a target size
+ * with {@link android.widget.ImageView.ScaleType#CENTER_CROP}. When the crop cuts off
+ * much of the source, only the part that will be shown is decoded.
+ */
+final class BitmapDecoder
+{
+    private static final String TAG = "BitmapDecoder";
+
+    /** Bitmap.Config.HARDWARE, which is newer than the SDK the library is compiled against */
+    static final Bitmap.Config HARDWARE_CONFIG = Build.VERSION.SDK_INT >= 26 ? Bitmap.Config.valueOf("HARDWARE") : null;
+
+    /** Decoding only the crop pays off once it cuts off at least this fraction of the source. */
+    private static final float MIN_CROPPED_FRACTION = 0.1f;
+
+    private BitmapDecoder()
+    {
+    }
+
+    /**
+     * Returns the largest power of two sample size that keeps both sides of the decoded
+     * bitmap at or above the target size.
+     */
+    static int calculateInSampleSize(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight)
+    {
+        int inSampleSize = 1;
+
+        if (targetWidth <= 0 || targetHeight <= 0)
+        {
+            return inSampleSize;
+        }
+
+        while (sourceWidth / (inSampleSize * 2) >= targetWidth && sourceHeight / (inSampleSize * 2) >= targetHeight)
+        {
+            inSampleSize *= 2;
+        }
+
+        return inSampleSize;
+    }
+
+    /**
+     * Returns the centred part of the source that CENTER_CROP shows at the aspect ratio of
+     * the target, or null if it covers nearly all of the source.
+     */
+    static Rect calculateCenterCrop(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight)
+    {
+        if (targetWidth <= 0 || targetHeight <= 0)
+        {
+            return null;
+        }
+
+        int cropWidth = sourceWidth;
+        int cropHeight = sourceHeight;
+
+        if ((long) sourceWidth * targetHeight > (long) targetWidth * sourceHeight)
+        {
+            cropWidth = (int) Math.max(1, (long) sourceHeight * targetWidth / targetHeight);
+        }
+        else
+        {
+            cropHeight = (int) Math.max(1, (long) sourceWidth * targetHeight / targetWidth);
+        }
+
+        if ((long) cropWidth * cropHeight > (1 - MIN_CROPPED_FRACTION) * sourceWidth * sourceHeight)
+        {
+            return null;
+        }
+
+        int left = (sourceWidth - cropWidth) / 2;
+        int top = (sourceHeight - cropHeight) / 2;
+
+        return new Rect(left, top, left + cropWidth, top + cropHeight);
+    }
+
+    /**
+     * Returns the scale, at most 1, that fits the longer side of the source in maxSize.
+     */
+    static float calculateFitScale(int sourceWidth, int sourceHeight, int maxSize)
+    {
+        return Math.min(1f, maxSize / (float) Math.max(sourceWidth, sourceHeight));
+    }
+
+    /**
+     * Returns a side of the source at the size the framework shows it. Resources are
+     * scaled from their density to the display's, as by BitmapFactory.decodeResource.
+     */
+    static int scaledSize(int size, BitmapFactory.Options options)
+    {
+        if (options.inDensity == 0 || options.inTargetDensity == 0 || options.inDensity == options.inTargetDensity)
+        {
+            return size;
+        }
+
+        return (size * options.inTargetDensity + (options.inDensity >> 1)) / options.inDensity;
+    }
+
+    /**
+     * Reads only the header of the source. Returns false if the source is not a bitmap
+     * (e.g. a color, vector or other XML drawable) or cannot be opened.
+     */
+    static boolean decodeBounds(Context context, ImageSource source, BitmapFactory.Options options)
+    {
+        options.outWidth = -1;
+        options.outHeight = -1;
+
+        if (source.uri == null)
+        {
+            TypedValue value = new TypedValue();
+
+            if (!isBitmapResource(context, source.resId, value))
+            {
+                return false;
+            }
+
+            // The densities decodeResource scales by. Bitmaps are scaled by subsampling
+            // instead, so the decoder keeps the source's pixels.
+            options.inDensity = value.density == TypedValue.DENSITY_DEFAULT ? DisplayMetrics.DENSITY_DEFAULT
+                    : value.density != TypedValue.DENSITY_NONE ? value.density : 0;
+            options.inTargetDensity = context.getResources().getDisplayMetrics().densityDpi;
+            options.inScaled = false;
+        }
+
+        options.inJustDecodeBounds = true;
+
+        decodeStream(context, source, options);
+
+        options.inJustDecodeBounds = false;
+
+        return options.outWidth > 0 && options.outHeight > 0;
+    }
+
+    static boolean isBitmap(Context context, ImageSource source)
+    {
+        return decodeBounds(context, source, new BitmapFactory.Options());
+    }
+
+    /**
+     * Tells from its value alone whether a resource is a bitmap file, without opening it:
+     * colors have no file and vectors, shapes and selectors are XML files.
+     */
+    static boolean isBitmapResource(Context context, int resId, TypedValue value)
+    {
+        try
+        {
+            context.getResources().getValue(resId, value, true);
+        }
+        catch (Resources.NotFoundException e)
+        {
+            return false;
+        }
+
+        return value.string != null && !value.string.toString().endsWith(".xml");
+    }
+
+    /**
+     * Returns the config to draw a bitmap in software with: HARDWARE bitmaps cannot be read
+     * by software canvases or the render cache, so they become ARGB_8888.
+     */
+    static Bitmap.Config softwareConfig(Bitmap.Config config)
+    {
+        return isHardware(config) ? Bitmap.Config.ARGB_8888 : config;
+    }
+
+    static boolean isHardware(Bitmap.Config config)
+    {
+        return HARDWARE_CONFIG != null && config == HARDWARE_CONFIG;
+    }
+
+    /**
+     * Resolves the config preferred by a view for an image of the given type. RGB_565 is
+     * only used for JPEGs, which cannot have alpha, and HARDWARE only where it exists.
+     */
+    private static Bitmap.Config decodeConfig(Bitmap.Config preferred, String mimeType)
+    {
+        if (preferred == Bitmap.Config.RGB_565)
+        {
+            return "image/jpeg".equals(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        }
+
+        return isHardware(preferred) ? preferred : Bitmap.Config.ARGB_8888;
+    }
+
+    static Bitmap decode(Context context, ImageSource source, int targetWidth, int targetHeight, Bitmap.Config config)
+    {
+        WidgetMetrics.Listener metrics = WidgetMetrics.listener;
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        WidgetMetrics.beginSection("BitmapDecoder.decode");
+
+        Bitmap bitmap;
+
+        try
+        {
+            bitmap = decodeSampled(context, source, targetWidth, targetHeight, config);
+        }
+        finally
+        {
+            WidgetMetrics.endSection();
+        }
+
+        if (metrics != null && bitmap != null)
+        {
+            metrics.onImageDecoded(source.toString(), System.nanoTime() - start,
+                    bitmap.getWidth() * bitmap.getHeight(), targetWidth * targetHeight);
+        }
+
+        return bitmap;
+    }
+
+    private static Bitmap decodeSampled(Context context, ImageSource source, int targetWidth, int targetHeight,
+                                        Bitmap.Config config)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+
+        if (!decodeBounds(context, source, options))
+        {
+            return null;
+        }
+
+        if (targetWidth <= 0 || targetHeight <= 0)
+        {
+            // No target size yet, e.g. a wrap_content view without an image: decode all
+            // of the source at the size it is shown at, subsampled to fit the display.
+            DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+            int height = scaledSize(options.outHeight, options);
+            int width = scaledSize(options.outWidth, options);
+            float scale = calculateFitScale(width, height, Math.max(metrics.widthPixels, metrics.heightPixels));
+
+            targetWidth = Math.max(1, (int) (width * scale));
+            targetHeight = Math.max(1, (int) (height * scale));
+        }
+
+        options.inPreferredConfig = decodeConfig(config, options.outMimeType);
+
+        // Hardware bitmaps are immutable and are decoded whole, straight from the stream.
+        boolean isHardware = isHardware(options.inPreferredConfig);
+
+        Rect crop = !isHardware && isRegionDecodable(options.outMimeType)
+                ? calculateCenterCrop(options.outWidth, options.outHeight, targetWidth, targetHeight)
+                : null;
+
+        Bitmap bitmap = null;
+
+        if (crop != null)
+        {
+            // Falls back to decoding the whole image if this fails.
+            bitmap = decodePooled(context, source, crop, crop.width(), crop.height(),
+                    targetWidth, targetHeight, options);
+        }
+
+        if (bitmap == null && isHardware)
+        {
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+
+            bitmap = decodeStream(context, source, options);
+        }
+        else if (bitmap == null)
+        {
+            bitmap = decodePooled(context, source, null, options.outWidth, options.outHeight,
+                    targetWidth, targetHeight, options);
+        }
+
+        if (bitmap != null && options.inDensity != 0)
+        {
+            // Subsampling lowers the density along with the size, so getScaledWidth() still
+            // gives the size decodeResource would have.
+            bitmap.setDensity(Math.max(1, Math.round(options.inDensity / (float) options.inSampleSize)));
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Decodes the crop of the source, or all of it if crop is null, subsampled to the
+     * target size. Whole images are decoded into a pooled bitmap if one fits; the region
+     * decoder does not reconfigure inBitmap, so crops always get a new bitmap.
+     */
+    private static Bitmap decodePooled(Context context, ImageSource source, Rect crop, int width, int height,
+                                       int targetWidth, int targetHeight, BitmapFactory.Options options)
+    {
+        options.inSampleSize = calculateInSampleSize(width, height, targetWidth, targetHeight);
+        options.inMutable = true;
+        options.inBitmap = crop != null ? null : BitmapPool.getInstance().getReusable(
+                (width + options.inSampleSize - 1) / options.inSampleSize,
+                (height + options.inSampleSize - 1) / options.inSampleSize,
+                options.inPreferredConfig);
+
+        Bitmap bitmap = decodeSource(context, source, crop, options);
+
+        if (bitmap == null && options.inBitmap != null)
+        {
+            // The pooled bitmap could not be reused for this image, so decode into a new one.
+            BitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+
+            bitmap = decodeSource(context, source, crop, options);
+        }
+
+        return bitmap;
+    }
+
+    private static boolean isRegionDecodable(String mimeType)
+    {
+        return "image/jpeg".equals(mimeType) || "image/png".equals(mimeType);
+    }
+
+    private static Bitmap decodeSource(Context context, ImageSource source, Rect crop, BitmapFactory.Options options)
+    {
+        return crop != null ? decodeRegion(context, source, crop, options) : decodeStream(context, source, options);
+    }
+
+    private static Bitmap decodeRegion(Context context, ImageSource source, Rect crop, BitmapFactory.Options options)
+    {
+        InputStream stream = null;
+        BitmapRegionDecoder decoder = null;
+
+        try
+        {
+            stream = source.openStream(context);
+            decoder = BitmapRegionDecoder.newInstance(stream, false);
+
+            return decoder.decodeRegion(crop, options);
+        }
+        catch (Exception e)
+        {
+            Log.w(TAG, "Unable to decode " + crop + " of " + source, e);
+
+            return null;
+        }
+        finally
+        {
+            if (decoder != null)
+            {
+                decoder.recycle();
+            }
+
+            close(stream);
+        }
+    }
+
+    private static Bitmap decodeStream(Context context, ImageSource source, BitmapFactory.Options options)
+    {
+        InputStream stream = null;
+
+        try
+        {
+            stream = source.openStream(context);
+
+            return BitmapFactory.decodeStream(stream, null, options);
+        }
+        catch (Exception e)
+        {
+            Log.w(TAG, "Unable to decode " + source, e);
+
+            return null;
+        }
+        finally
+        {
+            close(stream);
+        }
+    }
+
+    private static void close(InputStream stream)
+    {
+        if (stream != null)
+        {
+            try
+            {
+                stream.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+}
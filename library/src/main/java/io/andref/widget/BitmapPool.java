@@ -0,0 +1,202 @@
+package io.andref.widget;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Process-wide pool of mutable bitmaps, bucketed by size and config. Views return
+ * the bitmaps they rasterised once they no longer show them, and the next
+ * rasterisation or decode of a compatible size draws into one of those instead of
+ * allocating a new bitmap.
+ *
+ * Bitmaps in the {@link ImageCache} are shared and are never put in the pool.
+ */
+final class BitmapPool
+{
+    /** By default the pool may hold up to 1/32nd of the heap. */
+    private static final int DEFAULT_HEAP_FRACTION = 32;
+
+    /**
+     * A decode reuses a bitmap holding at most this many times the memory it needs, so
+     * that small images do not pin large allocations while the large images go without.
+     */
+    private static final int MAX_REUSE_FACTOR = 2;
+
+    private static BitmapPool instance;
+
+    private final LongSparseArray<ArrayList<Bitmap>> buckets = new LongSparseArray<ArrayList<Bitmap>>();
+    private final long maxSize;
+    private long size;
+
+    private BitmapPool(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    static synchronized BitmapPool getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION);
+        }
+
+        return instance;
+    }
+
+    private static long key(int width, int height, Bitmap.Config config)
+    {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+
+    /**
+     * The memory the bitmap holds, which after a decode into a reused bitmap can be more
+     * than its size needs.
+     */
+    static int byteCount(Bitmap bitmap)
+    {
+        if (Build.VERSION.SDK_INT >= 19)
+        {
+            return bitmap.getAllocationByteCount();
+        }
+
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * Returns a cleared bitmap of exactly the given size and config, reusing a pooled
+     * one if possible.
+     */
+    Bitmap get(int width, int height, Bitmap.Config config)
+    {
+        Bitmap bitmap = null;
+
+        synchronized (this)
+        {
+            ArrayList<Bitmap> bucket = buckets.get(key(width, height, config));
+
+            if (bucket != null && !bucket.isEmpty())
+            {
+                bitmap = bucket.remove(bucket.size() - 1);
+                size -= byteCount(bitmap);
+            }
+        }
+
+        if (bitmap == null)
+        {
+            return Bitmap.createBitmap(width, height, config);
+        }
+
+        bitmap.eraseColor(Color.TRANSPARENT);
+
+        return bitmap;
+    }
+
+    /**
+     * Returns the pooled bitmap with the smallest allocation that BitmapFactory can decode
+     * a bitmap of the given size into through
+     * {@link android.graphics.BitmapFactory.Options#inBitmap}, or null. Only supported from
+     * KitKat, where any bitmap with a large enough allocation can be reused.
+     */
+    @TargetApi(19)
+    synchronized Bitmap getReusable(int width, int height, Bitmap.Config config)
+    {
+        if (Build.VERSION.SDK_INT < 19)
+        {
+            return null;
+        }
+
+        long required = (long) width * height * bytesPerPixel(config);
+        long maxReused = required * MAX_REUSE_FACTOR;
+        ArrayList<Bitmap> bestBucket = null;
+        long bestBytes = Long.MAX_VALUE;
+
+        for (int i = 0; i < buckets.size() && bestBytes != required; i++)
+        {
+            ArrayList<Bitmap> bucket = buckets.valueAt(i);
+
+            if (bucket.isEmpty())
+            {
+                continue;
+            }
+
+            // Bitmaps in a bucket share a size but not an allocation, which may be larger
+            // after a decode into it, so check the one that is handed out.
+            long bytes = bucket.get(bucket.size() - 1).getAllocationByteCount();
+
+            if (bytes >= required && bytes <= maxReused && bytes < bestBytes)
+            {
+                bestBucket = bucket;
+                bestBytes = bytes;
+            }
+        }
+
+        if (bestBucket == null)
+        {
+            return null;
+        }
+
+        Bitmap bitmap = bestBucket.remove(bestBucket.size() - 1);
+        size -= bitmap.getAllocationByteCount();
+
+        return bitmap;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config)
+    {
+        switch (config)
+        {
+            case ALPHA_8:
+                return 1;
+
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+
+            case ARGB_8888:
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Hands a bitmap that is no longer shown to the pool. Bitmaps that do not fit in
+     * the pool are left to the garbage collector.
+     */
+    synchronized void put(Bitmap bitmap)
+    {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null)
+        {
+            return;
+        }
+
+        int bytes = byteCount(bitmap);
+
+        if (size + bytes > maxSize)
+        {
+            return;
+        }
+
+        long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayList<Bitmap> bucket = buckets.get(key);
+
+        if (bucket == null)
+        {
+            bucket = new ArrayList<Bitmap>();
+            buckets.put(key, bucket);
+        }
+
+        bucket.add(bitmap);
+        size += bytes;
+    }
+
+    synchronized void clear()
+    {
+        buckets.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,101 @@
+package io.andref.widget;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
+import android.view.animation.LinearInterpolator;
+
+import java.util.ArrayDeque;
+
+/**
+ * Runs the flips of every {@link AnimatedCheckBox} on a small pool of ValueAnimators.
+ * A checkbox only holds an animator while its flip is running, and the animators are
+ * reused by the next flip instead of being allocated per checkbox. Main thread only.
+ */
+final class FlipDriver
+{
+    private static final int MAX_POOL_SIZE = 4;
+
+    private static final ArrayDeque<Flip> POOL = new ArrayDeque<Flip>(MAX_POOL_SIZE);
+
+    interface Listener
+    {
+        /** Called on every frame with the linear fraction of the flip, from 0 to 1. */
+        void onFlipUpdate(float fraction);
+
+        /** Called once the flip has finished. Not called if it was cancelled. */
+        void onFlipEnd();
+    }
+
+    private FlipDriver()
+    {
+    }
+
+    static Flip start(long duration, Listener listener)
+    {
+        Flip flip = POOL.poll();
+
+        if (flip == null)
+        {
+            flip = new Flip();
+        }
+
+        flip.listener = listener;
+        flip.animator.setDuration(duration);
+        flip.animator.start();
+
+        return flip;
+    }
+
+    static final class Flip extends AnimatorListenerAdapter implements ValueAnimator.AnimatorUpdateListener
+    {
+        private final ValueAnimator animator = ValueAnimator.ofFloat(0, 1);
+        private Listener listener;
+
+        private Flip()
+        {
+            animator.setInterpolator(new LinearInterpolator());
+            animator.addUpdateListener(this);
+            animator.addListener(this);
+        }
+
+        @Override
+        public void onAnimationUpdate(ValueAnimator animation)
+        {
+            if (listener != null)
+            {
+                listener.onFlipUpdate(animation.getAnimatedFraction());
+            }
+        }
+
+        @Override
+        public void onAnimationEnd(Animator animation)
+        {
+            Listener listener = this.listener;
+            this.listener = null;
+
+            if (POOL.size() < MAX_POOL_SIZE)
+            {
+                POOL.offer(this);
+            }
+
+            if (listener != null)
+            {
+                listener.onFlipEnd();
+            }
+        }
+
+        /** Stops the flip where it is. The flip must not be used afterwards. */
+        void cancel()
+        {
+            listener = null;
+            animator.cancel();
+        }
+
+        /** Jumps to the end of the flip. The flip must not be used afterwards. */
+        void end()
+        {
+            animator.end();
+        }
+    }
+}
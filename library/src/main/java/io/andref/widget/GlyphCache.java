@@ -0,0 +1,140 @@
+package io.andref.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of single characters rendered into alpha masks, keyed by typeface,
+ * size and character. Avatar initials are drawn from these masks with the text paint,
+ * which tints them, so a glyph is rasterised once however many rows show it.
+ *
+ * Lookups reuse a probe key and allocate nothing on a hit. Main thread only.
+ */
+final class GlyphCache
+{
+    private static final int MAX_GLYPHS = 256;
+
+    private static GlyphCache instance;
+
+    private final LruCache<Key, Glyph> cache = new LruCache<Key, Glyph>(MAX_GLYPHS);
+
+    private final Key probe = new Key();
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Rect bounds = new Rect();
+    private final char[] chars = new char[1];
+
+    private GlyphCache()
+    {
+    }
+
+    static synchronized GlyphCache getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new GlyphCache();
+        }
+
+        return instance;
+    }
+
+    Glyph get(Typeface typeface, float size, char c)
+    {
+        probe.set(typeface, size, c);
+
+        Glyph glyph = cache.get(probe);
+
+        if (glyph == null)
+        {
+            glyph = render(typeface, size, c);
+
+            Key key = new Key();
+            key.set(typeface, size, c);
+
+            cache.put(key, glyph);
+        }
+
+        return glyph;
+    }
+
+    private Glyph render(Typeface typeface, float size, char c)
+    {
+        chars[0] = c;
+
+        paint.setTypeface(typeface);
+        paint.setTextSize(size);
+        paint.getTextBounds(chars, 0, 1, bounds);
+
+        Bitmap mask = null;
+
+        if (!bounds.isEmpty())
+        {
+            mask = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ALPHA_8);
+            new Canvas(mask).drawText(chars, 0, 1, -bounds.left, -bounds.top, paint);
+        }
+
+        return new Glyph(mask, bounds.left, bounds.top, paint.measureText(chars, 0, 1));
+    }
+
+    static final class Glyph
+    {
+        /** Null for characters that draw nothing, such as spaces */
+        final Bitmap mask;
+
+        /** Offset of the mask from the pen position on the baseline */
+        final int left;
+        final int top;
+
+        final float advance;
+
+        private Glyph(Bitmap mask, int left, int top, float advance)
+        {
+            this.mask = mask;
+            this.left = left;
+            this.top = top;
+            this.advance = advance;
+        }
+    }
+
+    private static final class Key
+    {
+        private Typeface typeface;
+        private float size;
+        private char c;
+
+        void set(Typeface typeface, float size, char c)
+        {
+            this.typeface = typeface;
+            this.size = size;
+            this.c = c;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+
+            Key other = (Key) o;
+
+            return c == other.c && size == other.size
+                    && (typeface == null ? other.typeface == null : typeface.equals(other.typeface));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = typeface != null ? typeface.hashCode() : 0;
+            result = 31 * result + Float.floatToIntBits(size);
+            result = 31 * result + c;
+
+            return result;
+        }
+    }
+}
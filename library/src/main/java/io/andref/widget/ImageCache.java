@@ -0,0 +1,241 @@
+package io.andref.widget;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.HashSet;
+
+/**
+ * Process-wide cache of the bitmaps shown by {@link ShapedImageView}, bounded by the
+ * number of kilobytes the cached bitmaps hold. Entries are keyed by source, target
+ * size, config, shape and stroke so that rows showing the same image share one bitmap.
+ *
+ * Bitmaps handed out by the cache are shared and must not be recycled or modified.
+ */
+public final class ImageCache
+{
+    /** By default the cache may hold up to 1/8th of the heap. */
+    private static final int DEFAULT_HEAP_FRACTION = 8;
+
+    private static ImageCache instance;
+
+    private final LruCache<Key, Bitmap> cache;
+
+    /** The keys in the cache, so presence can be checked without touching the LRU order */
+    private final HashSet<Key> keys = new HashSet<Key>();
+
+    private ImageCache(int maxSizeKb)
+    {
+        cache = new LruCache<Key, Bitmap>(maxSizeKb)
+        {
+            @Override
+            protected int sizeOf(Key key, Bitmap value)
+            {
+                return Math.max(1, BitmapPool.byteCount(value) / 1024);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue, Bitmap newValue)
+            {
+                if (newValue == null)
+                {
+                    synchronized (keys)
+                    {
+                        keys.remove(key);
+                    }
+                }
+            }
+        };
+    }
+
+    public static synchronized ImageCache getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new ImageCache((int) (Runtime.getRuntime().maxMemory() / 1024 / DEFAULT_HEAP_FRACTION));
+        }
+
+        return instance;
+    }
+
+    /**
+     * Replaces the shared cache with an empty one holding at most {@code maxSizeKb}
+     * kilobytes of bitmaps. Counters start again from zero.
+     */
+    public static synchronized void setMaxSize(int maxSizeKb)
+    {
+        if (maxSizeKb <= 0)
+        {
+            throw new IllegalArgumentException("maxSizeKb <= 0");
+        }
+
+        if (instance != null)
+        {
+            instance.evictAll();
+        }
+
+        instance = new ImageCache(maxSizeKb);
+    }
+
+    static Key key(ImageSource source, int width, int height, Bitmap.Config config, int shape, int strokeSize)
+    {
+        return new Key(source, width, height, config, shape, strokeSize);
+    }
+
+    Bitmap get(Key key)
+    {
+        Bitmap bitmap = cache.get(key);
+
+        WidgetMetrics.Listener metrics = WidgetMetrics.listener;
+
+        if (metrics != null)
+        {
+            metrics.onCacheLookup(bitmap != null);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Whether the key is cached, without counting a hit or miss, notifying the metrics
+     * listener or moving the entry up the LRU order.
+     */
+    boolean contains(Key key)
+    {
+        synchronized (keys)
+        {
+            return keys.contains(key);
+        }
+    }
+
+    void put(Key key, Bitmap bitmap)
+    {
+        synchronized (keys)
+        {
+            keys.add(key);
+        }
+
+        cache.put(key, bitmap);
+    }
+
+    public void evictAll()
+    {
+        cache.evictAll();
+    }
+
+    public void trimToSize(int maxSizeKb)
+    {
+        cache.trimToSize(maxSizeKb);
+    }
+
+    // region Statistics
+
+    public int evictionCount()
+    {
+        return cache.evictionCount();
+    }
+
+    public int hitCount()
+    {
+        return cache.hitCount();
+    }
+
+    public int maxSize()
+    {
+        return cache.maxSize();
+    }
+
+    public int missCount()
+    {
+        return cache.missCount();
+    }
+
+    public int putCount()
+    {
+        return cache.putCount();
+    }
+
+    /** The number of kilobytes currently held by the cache. */
+    public int size()
+    {
+        return cache.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return cache.toString();
+    }
+
+    // endregion
+
+    /**
+     * Identifies a decoded bitmap. Immutable, with the hash computed once, so that a view
+     * can keep the key of its last decode and look it up again without allocating.
+     */
+    static final class Key
+    {
+        private final ImageSource source;
+        private final int width;
+        private final int height;
+        private final Bitmap.Config config;
+        private final int shape;
+        private final int strokeSize;
+        private final int hash;
+
+        private Key(ImageSource source, int width, int height, Bitmap.Config config, int shape, int strokeSize)
+        {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            this.shape = shape;
+            this.strokeSize = strokeSize;
+
+            int hash = source.hashCode();
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            hash = 31 * hash + (config != null ? config.hashCode() : 0);
+            hash = 31 * hash + shape;
+            hash = 31 * hash + strokeSize;
+
+            this.hash = hash;
+        }
+
+        boolean matches(ImageSource source, int width, int height, Bitmap.Config config, int shape, int strokeSize)
+        {
+            return this.width == width && this.height == height && this.config == config
+                    && this.shape == shape && this.strokeSize == strokeSize && this.source.equals(source);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+
+            Key that = (Key) o;
+
+            return hash == that.hash && that.matches(source, width, height, config, shape, strokeSize);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return source + "|" + width + "x" + height + "|" + config + "|" + shape + "|" + strokeSize;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package io.andref.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes image sources on a small pool of background threads and delivers the
+ * result on the main thread. Decoded bitmaps are added to the {@link ImageCache}.
+ */
+final class ImageLoader
+{
+    private static final int THREAD_COUNT = 2;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static
+    {
+        EXECUTOR = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                return new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ImageLoader #" + count.incrementAndGet());
+            }
+        });
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    interface Callback
+    {
+        /** Called on the main thread. {@code bitmap} is null if the source could not be decoded. */
+        void onImageLoaded(Request request, Bitmap bitmap);
+    }
+
+    private ImageLoader()
+    {
+    }
+
+    static Request load(Context context, ImageSource source, ImageCache.Key key, int width, int height, Bitmap.Config config,
+                        Callback callback)
+    {
+        Request request = new Request(context.getApplicationContext(), source, key, width, height, config, callback);
+        request.future = EXECUTOR.submit(request.decode);
+
+        return request;
+    }
+
+    /**
+     * Returns the cached bitmap for the key, or decodes the source on the calling thread
+     * and caches it. Returns null if the source could not be decoded.
+     */
+    static Bitmap loadNow(Context context, ImageSource source, ImageCache.Key key, int width, int height, Bitmap.Config config)
+    {
+        ImageCache cache = ImageCache.getInstance();
+        Bitmap bitmap = cache.get(key);
+
+        if (bitmap == null)
+        {
+            bitmap = BitmapDecoder.decode(context, source, width, height, config);
+
+            if (bitmap != null)
+            {
+                cache.put(key, bitmap);
+            }
+        }
+
+        return bitmap;
+    }
+
+    static final class Request
+    {
+        private final Context context;
+        private final ImageSource source;
+        private final ImageCache.Key key;
+        private final int width;
+        private final int height;
+        private final Bitmap.Config config;
+        private final Callback callback;
+
+        private Future<?> future;
+        private Bitmap result;
+        private volatile boolean isCancelled;
+
+        private final Runnable decode = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (isCancelled)
+                {
+                    return;
+                }
+
+                Bitmap bitmap = BitmapDecoder.decode(context, source, width, height, config);
+
+                if (bitmap != null)
+                {
+                    ImageCache.getInstance().put(key, bitmap);
+                }
+
+                result = bitmap;
+                MAIN_HANDLER.post(deliver);
+            }
+        };
+
+        private final Runnable deliver = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!isCancelled)
+                {
+                    callback.onImageLoaded(Request.this, result);
+                }
+            }
+        };
+
+        private Request(Context context, ImageSource source, ImageCache.Key key, int width, int height, Bitmap.Config config,
+                        Callback callback)
+        {
+            this.context = context;
+            this.source = source;
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            this.callback = callback;
+        }
+
+        ImageSource getSource()
+        {
+            return source;
+        }
+
+        /** Must be called on the main thread. The callback will not be invoked afterwards. */
+        void cancel()
+        {
+            isCancelled = true;
+
+            if (future != null)
+            {
+                future.cancel(false);
+            }
+
+            MAIN_HANDLER.removeCallbacks(deliver);
+        }
+    }
+}
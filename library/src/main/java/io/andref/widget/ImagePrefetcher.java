@@ -0,0 +1,289 @@
+package io.andref.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.support.annotation.DrawableRes;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+
+/**
+ * Decodes images ahead of the views that will show them and adds them to the
+ * {@link ImageCache}, so that a {@link ShapedImageView} bound later finds its bitmap
+ * already decoded at the right size. An adapter typically passes the images of the
+ * rows just past the visible ones to {@link #prefetch(Uri)} as the list scrolls, and
+ * calls {@link #cancelAll()} when the scroll direction changes.
+ *
+ * Decodes run on the loader threads shared with {@link ShapedImageView#loadImageAsync(Uri)}.
+ * At most {@link #getMaxConcurrent()} of them run at once so that visible rows are not
+ * queued behind prefetches, and requests are dropped once the bitmaps being decoded or
+ * waiting to be would take more than {@link #getMemoryBudget()} kilobytes.
+ *
+ * Main thread only.
+ */
+public final class ImagePrefetcher
+{
+    private static final int DEFAULT_MAX_CONCURRENT = 1;
+
+    /** By default outstanding prefetches may hold up to 1/4 of the image cache. */
+    private static final int DEFAULT_CACHE_FRACTION = 4;
+
+    private final Context context;
+
+    /** Computes the decode size the same way ShapedImageView does */
+    private final ShapedDrawable sizingDrawable;
+
+    private Bitmap.Config decodedConfig = ShapedImageView.getDefaultBitmapConfig();
+    private int decodedHeight;
+    private int decodedWidth;
+    private int shape;
+    private int strokeSize;
+
+    /** Prefetches waiting for a loader thread, and those handed to the loader, oldest first */
+    private final ArrayDeque<Prefetch> pending = new ArrayDeque<Prefetch>();
+    private final ArrayDeque<Prefetch> running = new ArrayDeque<Prefetch>();
+    private final HashSet<ImageCache.Key> pendingKeys = new HashSet<ImageCache.Key>();
+    private int outstandingKb;
+
+    private final ImageLoader.Callback callback = new ImageLoader.Callback()
+    {
+        @Override
+        public void onImageLoaded(ImageLoader.Request request, Bitmap bitmap)
+        {
+            Prefetch prefetch = findRunning(request);
+
+            if (prefetch != null)
+            {
+                finish(prefetch);
+                runNext();
+            }
+        }
+    };
+
+    /** Attributes */
+    private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private int memoryBudget;
+
+    public ImagePrefetcher(Context context)
+    {
+        this.context = context.getApplicationContext();
+
+        sizingDrawable = new ShapedDrawable(context.getResources().getDisplayMetrics().density);
+        memoryBudget = Math.max(1, ImageCache.getInstance().maxSize() / DEFAULT_CACHE_FRACTION);
+    }
+
+    /**
+     * Prefetches images for views of the same size, shape, stroke and bitmap config as this
+     * one, which must have been laid out. Typically called with the first bound row.
+     */
+    public void setTarget(ShapedImageView view)
+    {
+        setTargetSize(view.getWidth(), view.getHeight(), view.getShape(), view.getStrokeSize());
+        setBitmapConfig(view.getDecodeConfig());
+    }
+
+    /**
+     * Sets the bitmap config the target views decode to, by default that of
+     * {@link ShapedImageView#getDefaultBitmapConfig()}. Changing it cancels pending prefetches.
+     */
+    public void setBitmapConfig(Bitmap.Config bitmapConfig)
+    {
+        if (bitmapConfig == null)
+        {
+            throw new IllegalArgumentException("bitmapConfig must not be null.");
+        }
+
+        if (bitmapConfig != decodedConfig)
+        {
+            cancelAll();
+
+            decodedConfig = bitmapConfig;
+        }
+    }
+
+    /**
+     * Prefetches images for views of the given size in pixels, shape and stroke size.
+     * Changing the target cancels pending prefetches, since they were sized for the old one.
+     */
+    public void setTargetSize(int width, int height, int shape, int strokeSize)
+    {
+        sizingDrawable.setShape(shape);
+        sizingDrawable.setStrokeSize(strokeSize);
+        sizingDrawable.setBounds(0, 0, width, height);
+
+        RectF drawableRect = sizingDrawable.getDrawableRect();
+
+        int decodedHeight = (int) Math.ceil(drawableRect.height());
+        int decodedWidth = (int) Math.ceil(drawableRect.width());
+
+        if (decodedHeight != this.decodedHeight || decodedWidth != this.decodedWidth
+                || shape != this.shape || strokeSize != this.strokeSize)
+        {
+            cancelAll();
+
+            this.decodedHeight = decodedHeight;
+            this.decodedWidth = decodedWidth;
+            this.shape = shape;
+            this.strokeSize = strokeSize;
+        }
+    }
+
+    /**
+     * Returns true if the image was queued, false if it is already cached or queued,
+     * no target size is set or the memory budget is used up.
+     */
+    public boolean prefetch(@DrawableRes int resId)
+    {
+        return resId != 0 && prefetch(ImageSource.of(resId));
+    }
+
+    /**
+     * @see #prefetch(int)
+     */
+    public boolean prefetch(Uri uri)
+    {
+        return uri != null && prefetch(ImageSource.of(uri));
+    }
+
+    private boolean prefetch(ImageSource source)
+    {
+        if (decodedWidth <= 0 || decodedHeight <= 0)
+        {
+            return false;
+        }
+
+        ImageCache.Key key = ImageCache.key(source, decodedWidth, decodedHeight, decodedConfig, shape, strokeSize);
+
+        if (pendingKeys.contains(key) || ImageCache.getInstance().contains(key))
+        {
+            return false;
+        }
+
+        // Assumes four bytes per pixel, as RGB_565 is only used for some images.
+        int sizeKb = Math.max(1, decodedWidth * decodedHeight * 4 / 1024);
+
+        if (outstandingKb + sizeKb > memoryBudget)
+        {
+            return false;
+        }
+
+        pending.offer(new Prefetch(source, key, sizeKb));
+        pendingKeys.add(key);
+        outstandingKb += sizeKb;
+
+        runNext();
+
+        return true;
+    }
+
+    /**
+     * Drops the prefetches that have not completed. Decodes that have already started
+     * finish in the background, but their bitmaps are not waited for.
+     */
+    public void cancelAll()
+    {
+        for (Prefetch prefetch : running)
+        {
+            prefetch.request.cancel();
+        }
+
+        running.clear();
+        pending.clear();
+        pendingKeys.clear();
+        outstandingKb = 0;
+    }
+
+    private void runNext()
+    {
+        while (running.size() < maxConcurrent && !pending.isEmpty())
+        {
+            Prefetch prefetch = pending.poll();
+            prefetch.request = ImageLoader.load(context, prefetch.source, prefetch.key,
+                    decodedWidth, decodedHeight, decodedConfig, callback);
+
+            running.offer(prefetch);
+        }
+    }
+
+    private Prefetch findRunning(ImageLoader.Request request)
+    {
+        for (Prefetch prefetch : running)
+        {
+            if (prefetch.request == request)
+            {
+                return prefetch;
+            }
+        }
+
+        return null;
+    }
+
+    private void finish(Prefetch prefetch)
+    {
+        running.remove(prefetch);
+        pendingKeys.remove(prefetch.key);
+        outstandingKb -= prefetch.sizeKb;
+    }
+
+    // region Getters/Setters
+
+    public int getMaxConcurrent()
+    {
+        return maxConcurrent;
+    }
+
+    /**
+     * Sets how many prefetches may be decoding at once. Defaults to 1, which leaves the
+     * other loader thread to the views on screen.
+     */
+    public void setMaxConcurrent(int maxConcurrent)
+    {
+        if (maxConcurrent <= 0)
+        {
+            throw new IllegalArgumentException("maxConcurrent <= 0");
+        }
+
+        this.maxConcurrent = maxConcurrent;
+        runNext();
+    }
+
+    /** The number of kilobytes that queued and running prefetches may decode. */
+    public int getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the number of kilobytes that queued and running prefetches may decode. Defaults
+     * to a quarter of the image cache, so prefetching does not evict the rows on screen.
+     */
+    public void setMemoryBudget(int memoryBudgetKb)
+    {
+        if (memoryBudgetKb <= 0)
+        {
+            throw new IllegalArgumentException("memoryBudgetKb <= 0");
+        }
+
+        this.memoryBudget = memoryBudgetKb;
+    }
+
+    // endregion
+
+    private static final class Prefetch
+    {
+        final ImageSource source;
+        final ImageCache.Key key;
+        final int sizeKb;
+
+        ImageLoader.Request request;
+
+        Prefetch(ImageSource source, ImageCache.Key key, int sizeKb)
+        {
+            this.source = source;
+            this.key = key;
+            this.sizeKb = sizeKb;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.andref.widget;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.DrawableRes;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A resource or URI that can be decoded by {@link BitmapDecoder}.
+ */
+final class ImageSource
+{
+    final int resId;
+    final Uri uri;
+
+    private ImageSource(int resId, Uri uri)
+    {
+        this.resId = resId;
+        this.uri = uri;
+    }
+
+    static ImageSource of(@DrawableRes int resId)
+    {
+        return new ImageSource(resId, null);
+    }
+
+    static ImageSource of(Uri uri)
+    {
+        return new ImageSource(0, uri);
+    }
+
+    InputStream openStream(Context context) throws IOException
+    {
+        if (uri == null)
+        {
+            return context.getResources().openRawResource(resId);
+        }
+
+        InputStream stream = context.getContentResolver().openInputStream(uri);
+
+        if (stream == null)
+        {
+            throw new FileNotFoundException(uri.toString());
+        }
+
+        return stream;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+
+        if (!(o instanceof ImageSource))
+        {
+            return false;
+        }
+
+        ImageSource that = (ImageSource) o;
+
+        return resId == that.resId && (uri != null ? uri.equals(that.uri) : that.uri == null);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * resId + (uri != null ? uri.hashCode() : 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return uri != null ? uri.toString() : "res:" + resId;
+    }
+}
@@ -0,0 +1,805 @@
+package io.andref.widget;
+
+import android.graphics.*;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.text.TextPaint;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Draws an image cropped to a circle or square, with a fill, a stroke and centred
+ * text, inside its bounds. This is the rendering shared by {@link ShapedImageView}
+ * and the flat mode of {@link AnimatedCheckBox}; the owner is responsible for
+ * decoding the image and setting the bounds.
+ */
+final class ShapedDrawable extends Drawable
+{
+    static final int CIRCLE = 0;
+    static final int SQUARE = 1;
+
+    static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
+
+    /** Derived state that is recomputed before the next draw */
+    private static final int DIRTY_PAINTS = 1;
+    private static final int DIRTY_GEOMETRY = 1 << 1;
+    private static final int DIRTY_IMAGE = 1 << 2;
+    private static final int DIRTY_TEXT = 1 << 3;
+
+    private static final float SQRT_2 = (float) Math.sqrt(2);
+
+    private Bitmap bitmap;
+    private BitmapShader bitmapShader;
+    private int bitmapHeight;
+    private int bitmapWidth;
+    /** Whether bitmap was rasterised here and goes back to the BitmapPool when replaced */
+    private boolean isBitmapOwned;
+    /** Where bitmap was decoded from, if known, for reporting oversized bitmaps */
+    private ImageSource imageSource;
+    /** The bitmap last checked for being oversized, held weakly, and the scale it was drawn at */
+    private WeakReference<Bitmap> checkedBitmap;
+    private float checkedScale;
+
+    /** Color and gradient drawables are painted directly instead of through a bitmap */
+    private GradientDrawable gradientDrawable;
+    private boolean hasSolidColor;
+    private int solidColor;
+
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint fillPaint = new Paint();
+    private final Paint strokePaint = new Paint();
+    private final TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+
+    private final Matrix shaderMatrix = new Matrix();
+    private final RectF borderRect = new RectF();
+    private final RectF drawableRect = new RectF();
+
+    private float drawableRadius;
+    private float strokeRadius;
+
+    /** Where the text is drawn, measured once per text, size, typeface or geometry change */
+    private float textBaseline;
+    private float textX;
+
+    /** Avatar initials, drawn from the shared GlyphCache instead of as text */
+    private final char[] initials = new char[Avatar.MAX_INITIALS];
+    private int initialsLength;
+    private float initialsSize;
+
+    /** Whether the image covers the fill, so that draw can skip painting it */
+    private boolean isFillHidden;
+
+    private int dirtyFlags = DIRTY_PAINTS | DIRTY_GEOMETRY | DIRTY_IMAGE | DIRTY_TEXT;
+
+    /** Attributes */
+    private int alpha = 0xFF;
+    private boolean borderOverlay;
+    private int fillColor;
+    private int shape;
+    private int strokeColor;
+    private int strokeSize;
+    private String text;
+    private boolean textAutoFit;
+    private int textColor = Color.WHITE;
+    private float textSize;
+
+    ShapedDrawable(float density)
+    {
+        strokePaint.setStyle(Paint.Style.STROKE);
+        strokePaint.setAntiAlias(true);
+
+        fillPaint.setStyle(Paint.Style.FILL);
+        fillPaint.setAntiAlias(true);
+
+        bitmapPaint.setAntiAlias(true);
+
+        textPaint.density = density;
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setLinearText(true);
+    }
+
+    private void markDirty(int flags)
+    {
+        dirtyFlags |= flags;
+        invalidateSelf();
+    }
+
+    // region Drawing
+
+    @Override
+    public void draw(Canvas canvas)
+    {
+        if (bitmap != null && !canvas.isHardwareAccelerated() && BitmapDecoder.isHardware(bitmap.getConfig()))
+        {
+            // Software canvases, like a view drawn into a bitmap, cannot read hardware bitmaps.
+            // The copy replaces the bitmap, so it is made once per image, not on every frame;
+            // views that know they draw in software decode to a software config instead.
+            bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            dirtyFlags |= DIRTY_IMAGE;
+        }
+
+        updateDirtyState();
+
+        boolean hasImage = hasImage();
+
+        switch (shape)
+        {
+            case SQUARE:
+
+                if (!isFillHidden)
+                {
+                    canvas.drawRect(drawableRect, fillPaint);
+                }
+
+                if (hasImage)
+                {
+                    if (gradientDrawable != null)
+                    {
+                        gradientDrawable.draw(canvas);
+                    }
+                    else
+                    {
+                        canvas.drawRect(drawableRect, bitmapPaint);
+                    }
+
+                    if (strokeSize > 0)
+                    {
+                        canvas.drawRect(drawableRect, strokePaint);
+                    }
+                }
+
+                break;
+
+            case CIRCLE:
+            default:
+
+                if (!isFillHidden)
+                {
+                    canvas.drawCircle(borderRect.centerX(), borderRect.centerY(), drawableRadius, fillPaint);
+                }
+
+                if (hasImage)
+                {
+                    if (gradientDrawable != null)
+                    {
+                        gradientDrawable.draw(canvas);
+                    }
+                    else
+                    {
+                        canvas.drawCircle(borderRect.centerX(), borderRect.centerY(), drawableRadius, bitmapPaint);
+                    }
+
+                    if (strokeSize > 0)
+                    {
+                        canvas.drawCircle(borderRect.centerX(), borderRect.centerY(), strokeRadius, strokePaint);
+                    }
+                }
+
+                break;
+        }
+
+        if (text != null)
+        {
+            canvas.drawText(text, textX, textBaseline, textPaint);
+        }
+        else if (initialsLength > 0)
+        {
+            drawInitials(canvas);
+        }
+    }
+
+    private void drawInitials(Canvas canvas)
+    {
+        GlyphCache glyphCache = GlyphCache.getInstance();
+        Typeface typeface = textPaint.getTypeface();
+        float x = textX;
+
+        for (int i = 0; i < initialsLength; i++)
+        {
+            GlyphCache.Glyph glyph = glyphCache.get(typeface, initialsSize, initials[i]);
+
+            if (glyph.mask != null)
+            {
+                // An alpha mask is drawn in the color of the paint.
+                canvas.drawBitmap(glyph.mask, x + glyph.left, textBaseline + glyph.top, textPaint);
+            }
+
+            x += glyph.advance;
+        }
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds)
+    {
+        super.onBoundsChange(bounds);
+
+        dirtyFlags |= DIRTY_GEOMETRY;
+    }
+
+    @Override
+    public int getOpacity()
+    {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public void setAlpha(int alpha)
+    {
+        this.alpha = alpha;
+        markDirty(DIRTY_PAINTS | DIRTY_IMAGE);
+    }
+
+    @Override
+    public int getAlpha()
+    {
+        return alpha;
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter)
+    {
+        bitmapPaint.setColorFilter(colorFilter);
+        fillPaint.setColorFilter(colorFilter);
+        strokePaint.setColorFilter(colorFilter);
+        textPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    /**
+     * The part of the bounds covered by the image, which is also the size images
+     * should be decoded at.
+     */
+    RectF getDrawableRect()
+    {
+        if ((dirtyFlags & DIRTY_GEOMETRY) != 0)
+        {
+            updateGeometry();
+        }
+
+        return drawableRect;
+    }
+
+    private int modulateAlpha(int color)
+    {
+        if (alpha == 0xFF)
+        {
+            return color;
+        }
+
+        return (color & 0x00FFFFFF) | ((Color.alpha(color) * alpha / 0xFF) << 24);
+    }
+
+    /**
+     * Recomputes the derived state that setters have marked dirty since the last draw.
+     */
+    private void updateDirtyState()
+    {
+        if ((dirtyFlags & DIRTY_PAINTS) != 0)
+        {
+            updatePaints();
+        }
+
+        if ((dirtyFlags & DIRTY_GEOMETRY) != 0)
+        {
+            updateGeometry();
+        }
+
+        if ((dirtyFlags & DIRTY_IMAGE) != 0)
+        {
+            updateImage();
+        }
+
+        if ((dirtyFlags & DIRTY_TEXT) != 0)
+        {
+            updateText();
+        }
+
+        dirtyFlags = 0;
+    }
+
+    private void updatePaints()
+    {
+        strokePaint.setColor(modulateAlpha(strokeColor));
+        strokePaint.setStrokeWidth(strokeSize);
+
+        fillPaint.setColor(modulateAlpha(fillColor));
+
+        textPaint.setColor(modulateAlpha(textColor));
+    }
+
+    private void updateGeometry()
+    {
+        borderRect.set(getBounds());
+        strokeRadius = Math.min((borderRect.height() - strokeSize) / 2.0f, (borderRect.width() - strokeSize) / 2.0f);
+
+        drawableRect.set(borderRect);
+        if (!borderOverlay)
+        {
+            drawableRect.inset(strokeSize, strokeSize);
+        }
+
+        drawableRadius = Math.min(drawableRect.height() / 2.0f, drawableRect.width() / 2.0f);
+
+        // The shader matrix, gradient bounds and text position follow drawableRect.
+        dirtyFlags = (dirtyFlags & ~DIRTY_GEOMETRY) | DIRTY_IMAGE | DIRTY_TEXT;
+    }
+
+    private void updateText()
+    {
+        textPaint.setTextSize(textSize);
+
+        if (text == null)
+        {
+            if (initialsLength > 0)
+            {
+                updateInitials();
+            }
+
+            return;
+        }
+
+        if (textAutoFit)
+        {
+            // Shrink the text to the largest square that fits inside the shape.
+            float available = shape == SQUARE
+                    ? Math.min(drawableRect.width(), drawableRect.height())
+                    : drawableRadius * SQRT_2;
+
+            float scale = Math.min(
+                    available / textPaint.measureText(text),
+                    available / (textPaint.descent() - textPaint.ascent()));
+
+            if (scale < 1)
+            {
+                textPaint.setTextSize(textSize * scale);
+            }
+        }
+
+        textBaseline = drawableRect.centerY() - (textPaint.descent() + textPaint.ascent()) / 2;
+        textX = drawableRect.centerX();
+    }
+
+    /**
+     * Same layout as updateText, but measured from the cached glyphs. The text starts at
+     * textX rather than being centred on it.
+     */
+    private void updateInitials()
+    {
+        initialsSize = textSize;
+
+        float width = measureInitials();
+
+        if (textAutoFit)
+        {
+            float available = shape == SQUARE
+                    ? Math.min(drawableRect.width(), drawableRect.height())
+                    : drawableRadius * SQRT_2;
+
+            float scale = Math.min(
+                    available / width,
+                    available / (textPaint.descent() - textPaint.ascent()));
+
+            if (scale < 1)
+            {
+                initialsSize = textSize * scale;
+                textPaint.setTextSize(initialsSize);
+
+                width = measureInitials();
+            }
+        }
+
+        textBaseline = drawableRect.centerY() - (textPaint.descent() + textPaint.ascent()) / 2;
+        textX = drawableRect.centerX() - width / 2;
+    }
+
+    private float measureInitials()
+    {
+        GlyphCache glyphCache = GlyphCache.getInstance();
+        float width = 0;
+
+        for (int i = 0; i < initialsLength; i++)
+        {
+            width += glyphCache.get(textPaint.getTypeface(), initialsSize, initials[i]).advance;
+        }
+
+        return width;
+    }
+
+    private void updateImage()
+    {
+        boolean hasFill = Color.alpha(fillColor) != 0;
+
+        if (bitmap != null)
+        {
+            bitmapShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+
+            bitmapHeight = bitmap.getHeight();
+            bitmapWidth = bitmap.getWidth();
+
+            updateShaderMatrix();
+
+            bitmapPaint.setColor(modulateAlpha(Color.BLACK));
+
+            if (hasFill && bitmap.hasAlpha())
+            {
+                // Paint the fill underneath a translucent image in the same pass.
+                Shader fillShader = new LinearGradient(0, 0, 0, 1,
+                        modulateAlpha(fillColor), modulateAlpha(fillColor), Shader.TileMode.CLAMP);
+                bitmapPaint.setShader(new ComposeShader(fillShader, bitmapShader, PorterDuff.Mode.SRC_OVER));
+            }
+            else
+            {
+                bitmapPaint.setShader(bitmapShader);
+            }
+
+            // CENTER_CROP always covers drawableRect.
+            isFillHidden = true;
+        }
+        else if (hasSolidColor)
+        {
+            bitmapPaint.setColor(modulateAlpha(solidColor));
+            bitmapPaint.setShader(null);
+
+            isFillHidden = !hasFill || Color.alpha(solidColor) == 0xFF;
+        }
+        else if (gradientDrawable != null)
+        {
+            updateGradientBounds();
+            gradientDrawable.setAlpha(alpha);
+
+            isFillHidden = !hasFill || gradientDrawable.getOpacity() == PixelFormat.OPAQUE;
+        }
+        else
+        {
+            isFillHidden = !hasFill;
+        }
+    }
+
+    /**
+     * Fits the gradient to the shape, so that GradientDrawable draws the circle or
+     * square itself.
+     */
+    private void updateGradientBounds()
+    {
+        if (shape == SQUARE)
+        {
+            gradientDrawable.setShape(GradientDrawable.RECTANGLE);
+            gradientDrawable.setBounds(
+                    (int) drawableRect.left, (int) drawableRect.top, (int) drawableRect.right, (int) drawableRect.bottom);
+        }
+        else
+        {
+            float cx = borderRect.centerX();
+            float cy = borderRect.centerY();
+
+            gradientDrawable.setShape(GradientDrawable.OVAL);
+            gradientDrawable.setBounds(
+                    (int) (cx - drawableRadius), (int) (cy - drawableRadius),
+                    (int) (cx + drawableRadius), (int) (cy + drawableRadius));
+        }
+    }
+
+    private void updateShaderMatrix()
+    {
+        float scale;
+        float dx = 0;
+        float dy = 0;
+
+        shaderMatrix.set(null);
+
+        if (bitmapWidth * drawableRect.height() > drawableRect.width() * bitmapHeight)
+        {
+            scale = drawableRect.height() / (float) bitmapHeight;
+            dx = (drawableRect.width() - bitmapWidth * scale) * 0.5f;
+        }
+        else
+        {
+            scale = drawableRect.width() / (float) bitmapWidth;
+            dy = (drawableRect.height() - bitmapHeight * scale) * 0.5f;
+        }
+
+        shaderMatrix.setScale(scale, scale);
+        shaderMatrix.postTranslate((int) (dx + 0.5f) + drawableRect.left, (int) (dy + 0.5f) + drawableRect.top);
+
+        bitmapShader.setLocalMatrix(shaderMatrix);
+
+        // Only check again when the bitmap or its size on screen changes, not on every recompute.
+        if (WidgetMetrics.isOversizedBitmapDetectionEnabled && scale < 1
+                && (checkedBitmap == null || bitmap != checkedBitmap.get() || scale != checkedScale))
+        {
+            checkedBitmap = new WeakReference<Bitmap>(bitmap);
+            checkedScale = scale;
+
+            WidgetMetrics.checkBitmapSize(getCallback(), imageSource, bitmap, scale);
+        }
+    }
+
+    // endregion
+
+    // region Image
+
+    boolean hasImage()
+    {
+        return bitmap != null || hasSolidColor || gradientDrawable != null;
+    }
+
+    Bitmap getBitmap()
+    {
+        return bitmap;
+    }
+
+    boolean isBitmapOwned()
+    {
+        return isBitmapOwned;
+    }
+
+    /**
+     * Shows a bitmap owned by the caller (or shared through the {@link ImageCache}).
+     */
+    void setBitmap(Bitmap bitmap)
+    {
+        setBitmap(bitmap, null);
+    }
+
+    void setBitmap(Bitmap bitmap, ImageSource imageSource)
+    {
+        clearImage();
+
+        this.bitmap = bitmap;
+        this.imageSource = imageSource;
+        markDirty(DIRTY_IMAGE);
+    }
+
+    /**
+     * Shows a drawable. Solid colors and gradients are painted directly, anything else
+     * is rasterised into a pooled bitmap that is returned by {@link #clearImage()}.
+     */
+    void setImageDrawable(Drawable drawable)
+    {
+        clearImage();
+
+        if (!paintDirectly(drawable))
+        {
+            bitmap = rasterise(drawable);
+            isBitmapOwned = bitmap != null && !(drawable instanceof BitmapDrawable);
+        }
+
+        markDirty(DIRTY_IMAGE);
+    }
+
+    /**
+     * Drops the current image, returning its bitmap to the BitmapPool if it was
+     * rasterised here.
+     */
+    void clearImage()
+    {
+        if (isBitmapOwned)
+        {
+            BitmapPool.getInstance().put(bitmap);
+            isBitmapOwned = false;
+        }
+
+        bitmapPaint.setShader(null);
+
+        bitmap = null;
+        bitmapShader = null;
+        gradientDrawable = null;
+        imageSource = null;
+        hasSolidColor = false;
+
+        markDirty(DIRTY_IMAGE);
+    }
+
+    static boolean canPaintDirectly(Drawable drawable)
+    {
+        return drawable instanceof ColorDrawable || drawable instanceof GradientDrawable;
+    }
+
+    /**
+     * Takes solid colors and gradients as they are, so that draw can paint them
+     * without a bitmap. Returns false for any other drawable.
+     */
+    private boolean paintDirectly(Drawable drawable)
+    {
+        if (drawable instanceof ColorDrawable)
+        {
+            hasSolidColor = true;
+            solidColor = ((ColorDrawable) drawable).getColor();
+
+            return true;
+        }
+
+        if (drawable instanceof GradientDrawable)
+        {
+            // ImageView holds the same drawable and resets its bounds to the whole view on
+            // every layout, so the gradient is fitted to the shape on a copy of its own.
+            Drawable.ConstantState state = drawable.getConstantState();
+
+            gradientDrawable = (GradientDrawable) (state != null ? state.newDrawable() : drawable).mutate();
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the bitmap of a BitmapDrawable, or draws any other drawable into a
+     * pooled bitmap of its intrinsic size.
+     */
+    static Bitmap rasterise(Drawable drawable)
+    {
+        if (drawable != null)
+        {
+
+            if (drawable instanceof BitmapDrawable)
+            {
+                return ((BitmapDrawable) drawable).getBitmap();
+            }
+
+            WidgetMetrics.Listener metrics = WidgetMetrics.listener;
+            long start = metrics != null ? System.nanoTime() : 0;
+
+            WidgetMetrics.beginSection("ShapedDrawable.rasterise");
+
+            try
+            {
+                Bitmap bitmap = BitmapPool.getInstance()
+                        .get(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), BITMAP_CONFIG);
+
+                Canvas canvas = new Canvas(bitmap);
+
+                drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+                drawable.draw(canvas);
+
+                if (metrics != null)
+                {
+                    metrics.onDrawableRasterised(System.nanoTime() - start, bitmap.getWidth() * bitmap.getHeight());
+                }
+
+                return bitmap;
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+
+                return null;
+            }
+            finally
+            {
+                WidgetMetrics.endSection();
+            }
+        }
+
+        return null;
+    }
+
+    // endregion
+
+    // region Getters/Setters
+
+    boolean isBorderOverlay()
+    {
+        return borderOverlay;
+    }
+
+    void setBorderOverlay(boolean borderOverlay)
+    {
+        this.borderOverlay = borderOverlay;
+        markDirty(DIRTY_GEOMETRY);
+    }
+
+    int getFillColor()
+    {
+        return fillColor;
+    }
+
+    void setFillColor(int fillColor)
+    {
+        this.fillColor = fillColor;
+        markDirty(DIRTY_PAINTS | DIRTY_IMAGE);
+    }
+
+    int getShape()
+    {
+        return shape;
+    }
+
+    void setShape(int shape)
+    {
+        this.shape = shape;
+        markDirty(DIRTY_IMAGE | DIRTY_TEXT);
+    }
+
+    int getStrokeColor()
+    {
+        return strokeColor;
+    }
+
+    void setStrokeColor(int strokeColor)
+    {
+        this.strokeColor = strokeColor;
+        markDirty(DIRTY_PAINTS);
+    }
+
+    int getStrokeSize()
+    {
+        return strokeSize;
+    }
+
+    void setStrokeSize(int strokeSize)
+    {
+        this.strokeSize = strokeSize;
+        markDirty(DIRTY_PAINTS | DIRTY_GEOMETRY);
+    }
+
+    String getText()
+    {
+        return text;
+    }
+
+    void setText(String text)
+    {
+        this.text = text;
+        initialsLength = 0;
+        markDirty(DIRTY_TEXT);
+    }
+
+    /**
+     * Shows the initials of the name instead of the text, or nothing if it is null.
+     */
+    void setInitials(CharSequence name)
+    {
+        text = null;
+        initialsLength = name != null ? Avatar.initials(name, initials) : 0;
+        markDirty(DIRTY_TEXT);
+    }
+
+    boolean isTextAutoFit()
+    {
+        return textAutoFit;
+    }
+
+    void setTextAutoFit(boolean textAutoFit)
+    {
+        this.textAutoFit = textAutoFit;
+        markDirty(DIRTY_TEXT);
+    }
+
+    int getTextColor()
+    {
+        return textColor;
+    }
+
+    void setTextColor(int textColor)
+    {
+        this.textColor = textColor;
+        markDirty(DIRTY_PAINTS);
+    }
+
+    float getTextSize()
+    {
+        return textSize;
+    }
+
+    void setTextSize(float textSize)
+    {
+        this.textSize = textSize;
+        markDirty(DIRTY_TEXT);
+    }
+
+    Typeface getTypeface()
+    {
+        return textPaint.getTypeface();
+    }
+
+    void setTypeface(Typeface typeface)
+    {
+        textPaint.setTypeface(typeface);
+        markDirty(DIRTY_TEXT);
+    }
+
+    // endregion
+}
@@ -5,56 +5,95 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.*;
 import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.support.annotation.DrawableRes;
-import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
 public class ShapedImageView extends ImageView
 {
     private static final String TAG = "ShapedImageView";
 
-    private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
-    private static final int COLOR_DRAWABLE_DIMENSION = 2;
     private static final ScaleType SCALE_TYPE = ScaleType.CENTER_CROP;
 
-    private static final int CIRCLE = 0;
-    private static final int SQUARE = 1;
+    /** Config of the bitmaps decoded by views that do not set siv_bitmapConfig */
+    private static Bitmap.Config defaultBitmapConfig = Bitmap.Config.ARGB_8888;
 
-    private Bitmap bitmap;
-    private BitmapShader bitmapShader;
-    private int bitmapHeight;
-    private int bitmapWidth;
+    /** Draws the fill, image, stroke and text; this view only loads the image */
+    private ShapedDrawable shapedDrawable;
+    private boolean isRasterisePending;
 
-    private Paint bitmapPaint;
-    private Paint fillPaint;
-    private Paint strokePaint;
-    private TextPaint textPaint;
-
-    private final Matrix shaderMatrix = new Matrix();
-    private final RectF borderRect = new RectF();
-    private final RectF drawableRect = new RectF();
-
-    private float drawableRadius;
-    private float strokeRadius;
+    /** Fill, image, stroke and text composited once and drawn as a single bitmap */
+    private Bitmap renderCache;
+    private Canvas renderCacheCanvas;
+    private boolean isRenderCacheDirty;
 
     private boolean isReady;
     private boolean isInitializationPending;
 
+    /** Nesting depth of beginUpdate()/endUpdate() */
+    private int updateDepth;
+
+    /** Bitmap source decoded to the size of drawableRect once the view has been measured */
+    private ImageSource imageSource;
+    private Bitmap.Config decodedConfig;
+    /** Cache key of the last decode, reused while the source and size stay the same */
+    private ImageCache.Key decodedKey;
+    private int decodedHeight;
+    private int decodedWidth;
+    private boolean isDecodePending;
+
+    /** Size of the bitmap source, which onMeasure reports since ImageView has no drawable for it, or -1 */
+    private int sourceHeight = -1;
+    private int sourceWidth = -1;
+    /** Set while a new source changes the view's size, so decoding waits for the next layout */
+    private boolean isSourceSizePending;
+
+    /** Whether the last measure fixed both dimensions, so the view's size does not depend on its image */
+    private boolean isMeasured;
+    private boolean isSizedExactly;
+
+    /** Background decode started by loadImageAsync() */
+    private ImageLoader.Request imageRequest;
+    private boolean isDecodeAsync;
+
+    private final ImageLoader.Callback imageCallback = new ImageLoader.Callback()
+    {
+        @Override
+        public void onImageLoaded(ImageLoader.Request request, Bitmap bitmap)
+        {
+            if (request != imageRequest)
+            {
+                return;
+            }
+
+            imageRequest = null;
+
+            if (bitmap == null && request.getSource().uri == null)
+            {
+                // Not a bitmap (e.g. a vector), so inflate it through ImageView like setImageResource does.
+                imageSource = null;
+                ShapedImageView.super.setImageResource(request.getSource().resId);
+
+                setResourceDrawable(request.getSource(), getDrawable());
+            }
+            else
+            {
+                setRequestedBitmap(bitmap);
+            }
+
+            initialize();
+        }
+    };
+
     /** Attributes */
-    private boolean borderOverlay;
-    private int fillColor;
-    private int shape;
-    private int strokeColor;
-    private int strokeSize;
-    private String text;
-    private int textColor = Color.WHITE;
-    private int textSize = 24;
+    private int[] avatarPalette = Avatar.DEFAULT_PALETTE;
+    private Bitmap.Config bitmapConfig = defaultBitmapConfig;
+    private boolean renderCacheEnabled;
 
     public ShapedImageView(Context context)
     {
@@ -86,40 +125,69 @@ public class ShapedImageView extends ImageView
         // Convert the default DP/SP size to real pixels.
         DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
 
-        textSize = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, textSize, displayMetrics);
+        int fillColor = 0;
+        int shape;
+        int strokeColor = 0;
+        int strokeSize = 0;
+        String text;
+        boolean textAutoFit = false;
+        int textColor = Color.WHITE;
+        float textSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 24, displayMetrics);
 
         final TypedArray a = context.getTheme()
                 .obtainStyledAttributes(attrs, R.styleable.ShapedImageView, defStyleAttr, defStyleRes);
 
         try
         {
+            int avatarPaletteId = a.getResourceId(R.styleable.ShapedImageView_siv_avatarPalette, 0);
+            if (avatarPaletteId != 0)
+            {
+                setAvatarPalette(getResources().getIntArray(avatarPaletteId));
+            }
+
+            switch (a.getInt(R.styleable.ShapedImageView_siv_bitmapConfig, -1))
+            {
+                case 0:
+                    bitmapConfig = Bitmap.Config.ARGB_8888;
+                    break;
+
+                case 1:
+                    bitmapConfig = Bitmap.Config.RGB_565;
+                    break;
+
+                case 2:
+                    bitmapConfig = BitmapDecoder.HARDWARE_CONFIG != null
+                            ? BitmapDecoder.HARDWARE_CONFIG
+                            : Bitmap.Config.ARGB_8888;
+                    break;
+            }
+
             fillColor = a.getColor(R.styleable.ShapedImageView_siv_fillColor, fillColor);
+            renderCacheEnabled = a.getBoolean(R.styleable.ShapedImageView_siv_renderCache, renderCacheEnabled);
             shape = a.getInteger(R.styleable.ShapedImageView_siv_shape, 0);
             strokeColor = a.getColor(R.styleable.ShapedImageView_siv_strokeColor, strokeColor);
             strokeSize = a.getDimensionPixelSize(R.styleable.ShapedImageView_siv_strokeSize, strokeSize);
             text = a.getString(R.styleable.ShapedImageView_siv_text);
+            textAutoFit = a.getBoolean(R.styleable.ShapedImageView_siv_textAutoFit, textAutoFit);
             textColor = a.getColor(R.styleable.ShapedImageView_siv_textColor, textColor);
-            textSize = a.getDimensionPixelSize(R.styleable.ShapedImageView_siv_textSize, textSize);
+            textSize = a.getDimensionPixelSize(R.styleable.ShapedImageView_siv_textSize, (int) textSize);
         }
         finally
         {
             a.recycle();
         }
 
-        bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
-        fillPaint = new Paint();
-        strokePaint = new Paint();
+        // ImageView's constructor may already have created it for android:src.
+        getShapedDrawable().setCallback(this);
 
-        textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
-        textPaint.density = getResources().getDisplayMetrics().density;
-        textPaint.setTextAlign(Paint.Align.CENTER);
-        textPaint.setLinearText(true);
+        beginUpdate();
 
         setFillColor(fillColor);
         setShape(shape);
         setStrokeColor(strokeColor);
         setStrokeSize(strokeSize);
         setText(text);
+        setTextAutoFit(textAutoFit);
         setTextColor(textColor);
         setTextSize(textSize);
 
@@ -127,61 +195,109 @@ public class ShapedImageView extends ImageView
         setScaleType(SCALE_TYPE);
         isReady = true;
 
-        if (isInitializationPending)
+        endUpdate();
+    }
+
+    /**
+     * ImageView's constructor calls setImageDrawable before the fields of this class
+     * are initialised, so the drawable is created on first use.
+     */
+    private ShapedDrawable getShapedDrawable()
+    {
+        if (shapedDrawable == null)
         {
-            initialize();
-            isInitializationPending = false;
+            shapedDrawable = new ShapedDrawable(getResources().getDisplayMetrics().density);
         }
+
+        return shapedDrawable;
     }
 
-    private void initialize()
+    /**
+     * Defers the work done by setters until the matching {@link #endUpdate()}, which
+     * recomputes paints, radii and the shader matrix and invalidates the view once.
+     * Calls may be nested.
+     */
+    public void beginUpdate()
     {
-        if (!isReady)
+        updateDepth++;
+    }
+
+    public void endUpdate()
+    {
+        if (updateDepth == 0)
         {
-            isInitializationPending = true;
-            return;
+            throw new IllegalStateException("endUpdate() called without beginUpdate().");
         }
 
-        if (getWidth() == 0 && getHeight() == 0)
+        if (--updateDepth == 0)
         {
-            return;
+            if (isInitializationPending)
+            {
+                isInitializationPending = false;
+                initialize();
+            }
+            else
+            {
+                invalidate();
+            }
         }
+    }
 
-//
-        strokePaint.setStyle(Paint.Style.STROKE);
-        strokePaint.setAntiAlias(true);
-        strokePaint.setColor(strokeColor);
-        strokePaint.setStrokeWidth(strokeSize);
-//
-        fillPaint.setStyle(Paint.Style.FILL);
-        fillPaint.setAntiAlias(true);
-        fillPaint.setColor(fillColor);
-//
-        borderRect.set(0, 0, getWidth(), getHeight());
-        strokeRadius = Math.min((borderRect.height() - strokeSize) / 2.0f, (borderRect.width() - strokeSize) / 2.0f);
+    private void invalidateUnlessUpdating()
+    {
+        isRenderCacheDirty = true;
 
-        drawableRect.set(borderRect);
-        if (!borderOverlay)
+        if (updateDepth == 0)
         {
-            drawableRect.inset(strokeSize, strokeSize);
+            invalidate();
         }
+    }
 
-        drawableRadius = Math.min(drawableRect.height() / 2.0f, drawableRect.width() / 2.0f);
+    private void initialize()
+    {
+        if (!isReady || updateDepth > 0)
+        {
+            isInitializationPending = true;
+            return;
+        }
 
-        if (bitmap != null)
+        if (imageSource != null && isDecodeAsync && isDecodePending && isSizedByContent())
         {
-            bitmapShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            // The view's size depends on the image, so it is decoded without a size to find
+            // it out. Until it arrives the view keeps its current size.
+            requestImage(0, 0);
+        }
 
-            bitmapPaint.setAntiAlias(true);
-            bitmapPaint.setShader(bitmapShader);
+        // A view with no area shows nothing, and a non-positive decode size would mean the whole source.
+        if (getWidth() <= 0 || getHeight() <= 0)
+        {
+            return;
+        }
+
+        WidgetMetrics.beginSection("ShapedImageView.initialize");
 
-            bitmapHeight = bitmap.getHeight();
-            bitmapWidth = bitmap.getWidth();
+        shapedDrawable.setBounds(0, 0, getWidth(), getHeight());
 
-            updateShaderMatrix();
+        // The decode size depends on drawableRect, so it cannot wait for onDraw.
+        RectF drawableRect = shapedDrawable.getDrawableRect();
+
+        if (imageSource != null && !isSourceSizePending && !isDecodingUnsized()
+                && (isDecodePending || drawableRect.width() > decodedWidth || drawableRect.height() > decodedHeight))
+        {
+            if (isDecodeAsync)
+            {
+                requestImage();
+            }
+            else
+            {
+                decodeImage();
+            }
         }
 
+        isRenderCacheDirty = true;
         invalidate();
+
+        WidgetMetrics.endSection();
     }
 
     @Override
@@ -193,51 +309,178 @@ public class ShapedImageView extends ImageView
         }
     }
 
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
+
+        if (isRasterisePending)
+        {
+            isRasterisePending = false;
+            shapedDrawable.setImageDrawable(getDrawable());
+            initialize();
+        }
+
+        if (isDecodePending)
+        {
+            initialize();
+        }
+        else
+        {
+            // Whether the window is hardware accelerated is only known once attached.
+            updateDecodeConfig();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        if (imageRequest != null)
+        {
+            // Start over when the view is attached again rather than deliver to a detached view.
+            cancelImageRequest();
+            isDecodePending = true;
+        }
+
+        if (shapedDrawable.isBitmapOwned())
+        {
+            shapedDrawable.clearImage();
+            isRasterisePending = true;
+        }
+
+        releaseRenderCache();
+
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable drawable)
+    {
+        return drawable == shapedDrawable || super.verifyDrawable(drawable);
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable drawable)
+    {
+        if (drawable == shapedDrawable)
+        {
+            invalidateUnlessUpdating();
+            return;
+        }
+
+        // A gradient drawable changed its state.
+        isRenderCacheDirty = true;
+
+        super.invalidateDrawable(drawable);
+    }
+
     @Override
     protected void onDraw(Canvas canvas)
     {
-        switch (shape)
+        if (renderCacheEnabled && (getWidth() == 0 || getHeight() == 0))
         {
-            case SQUARE:
+            return;
+        }
 
-                canvas.drawRect(drawableRect, fillPaint);
+        WidgetMetrics.Listener metrics = WidgetMetrics.listener;
+        long start = metrics != null ? System.nanoTime() : 0;
 
-                if (bitmap != null)
-                {
-                    canvas.drawRect(drawableRect, bitmapPaint);
+        WidgetMetrics.beginSection("ShapedImageView.draw");
+
+        if (renderCacheEnabled)
+        {
+            if (isRenderCacheDirty || renderCache == null)
+            {
+                updateRenderCache();
+            }
+
+            canvas.drawBitmap(renderCache, 0, 0, null);
+        }
+        else
+        {
+            shapedDrawable.draw(canvas);
+        }
 
-                    if (strokeSize > 0)
-                    {
-                        canvas.drawRect(drawableRect, strokePaint);
-                    }
-                }
+        WidgetMetrics.endSection();
 
-                break;
+        if (metrics != null)
+        {
+            metrics.onDraw(this, System.nanoTime() - start);
+        }
+    }
 
-            case CIRCLE:
-            default:
+    private void updateRenderCache()
+    {
+        if (renderCache == null || renderCache.getWidth() != getWidth() || renderCache.getHeight() != getHeight())
+        {
+            releaseRenderCache();
 
-                canvas.drawCircle(getWidth() / 2.0f, getHeight() / 2.0f, drawableRadius, fillPaint);
+            renderCache = BitmapPool.getInstance().get(getWidth(), getHeight(), ShapedDrawable.BITMAP_CONFIG);
+            renderCacheCanvas = new Canvas(renderCache);
+        }
+        else
+        {
+            renderCache.eraseColor(Color.TRANSPARENT);
+        }
 
-                if (bitmap != null)
-                {
-                    canvas.drawCircle(getWidth() / 2.0f, getHeight() / 2.0f, drawableRadius, bitmapPaint);
+        shapedDrawable.draw(renderCacheCanvas);
+        isRenderCacheDirty = false;
+    }
 
-                    if (strokeSize > 0)
-                    {
-                        canvas.drawCircle(getWidth() / 2.0f, getHeight() / 2.0f, strokeRadius, strokePaint);
-                    }
-                }
+    private void releaseRenderCache()
+    {
+        if (renderCache != null)
+        {
+            BitmapPool.getInstance().put(renderCache);
 
-                break;
+            renderCache = null;
+            renderCacheCanvas = null;
         }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+    {
+        isMeasured = true;
+        isSizedExactly = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY
+                && MeasureSpec.getMode(heightMeasureSpec) == MeasureSpec.EXACTLY;
 
-        if (text != null)
+        if (imageSource != null && !isSizedExactly)
         {
-            float x = drawableRect.centerX();
-            float y = (drawableRect.centerY() - (textPaint.descent() + textPaint.ascent()) / 2);
+            // Set while the view looked sized exactly, e.g. match_parent inside a wrap_content parent.
+            if (isDecodeAsync && isDecodePending)
+            {
+                requestImage(0, 0);
+            }
+            else if (!isDecodeAsync && sourceWidth < 0)
+            {
+                readSourceSize(imageSource);
+            }
+        }
 
-            canvas.drawText(text, x, y, textPaint);
+        if (imageSource == null || sourceWidth < 0 || sourceHeight < 0)
+        {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            return;
+        }
+
+        // Measure the bitmap source the way ImageView measures its drawable.
+        int width = Math.max(sourceWidth + getPaddingLeft() + getPaddingRight(), getSuggestedMinimumWidth());
+        int height = Math.max(sourceHeight + getPaddingTop() + getPaddingBottom(), getSuggestedMinimumHeight());
+
+        setMeasuredDimension(resolveSizeAndState(width, widthMeasureSpec, 0),
+                resolveSizeAndState(height, heightMeasureSpec, 0));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom)
+    {
+        super.onLayout(changed, left, top, right, bottom);
+
+        if (isSourceSizePending)
+        {
+            isSourceSizePending = false;
+            initialize();
         }
     }
 
@@ -249,119 +492,522 @@ public class ShapedImageView extends ImageView
         initialize();
     }
 
-    private void updateShaderMatrix()
+    private void cancelImageRequest()
     {
-        float scale;
-        float dx = 0;
-        float dy = 0;
+        if (imageRequest != null)
+        {
+            imageRequest.cancel();
+            imageRequest = null;
+        }
+    }
 
-        shaderMatrix.set(null);
+    private void decodeImage()
+    {
+        isDecodePending = false;
 
-        if (bitmapWidth * drawableRect.height() > drawableRect.width() * bitmapHeight)
+        shapedDrawable.setBitmap(loadBitmap(imageSource), imageSource);
+    }
+
+    /**
+     * Sizes the next decode of the source and returns its cache key. A size of 0x0 decodes
+     * the whole source, fitted to the display.
+     */
+    private ImageCache.Key prepareDecode(ImageSource source, int width, int height)
+    {
+        decodedConfig = getDecodeConfig();
+        decodedHeight = height;
+        decodedWidth = width;
+
+        if (decodedKey == null || !decodedKey.matches(source, decodedWidth, decodedHeight, decodedConfig,
+                getShape(), getStrokeSize()))
         {
-            scale = drawableRect.height() / (float) bitmapHeight;
-            dx = (drawableRect.width() - bitmapWidth * scale) * 0.5f;
+            decodedKey = ImageCache.key(source, decodedWidth, decodedHeight, decodedConfig, getShape(), getStrokeSize());
         }
-        else
+
+        return decodedKey;
+    }
+
+    /**
+     * The bitmap config to decode with. The render cache, software layers and windows
+     * without hardware acceleration draw the image in software, which cannot read
+     * hardware bitmaps.
+     */
+    Bitmap.Config getDecodeConfig()
+    {
+        if (renderCacheEnabled || getLayerType() == LAYER_TYPE_SOFTWARE
+                || getWindowToken() != null && !isHardwareAccelerated())
         {
-            scale = drawableRect.width() / (float) bitmapWidth;
-            dy = (drawableRect.height() - bitmapHeight * scale) * 0.5f;
+            return BitmapDecoder.softwareConfig(bitmapConfig);
         }
 
-        shaderMatrix.setScale(scale, scale);
-        shaderMatrix.postTranslate((int) (dx + 0.5f) + drawableRect.left, (int) (dy + 0.5f) + drawableRect.top);
+        return bitmapConfig;
+    }
 
-        bitmapShader.setLocalMatrix(shaderMatrix);
+    /**
+     * Decodes the source again if it was decoded to a config the view can no longer use.
+     */
+    private void updateDecodeConfig()
+    {
+        if (imageSource != null && decodedConfig != null && getDecodeConfig() != decodedConfig)
+        {
+            isDecodePending = true;
+            initialize();
+        }
     }
 
+    @Override
+    public void setLayerType(int layerType, Paint paint)
+    {
+        super.setLayerType(layerType, paint);
 
-    // region Getters/Setters
+        // ImageView's constructor may set a layer type before this class is initialised.
+        if (shapedDrawable != null)
+        {
+            updateDecodeConfig();
+        }
+    }
+
+    /**
+     * Uses the cached bitmap if there is one, otherwise decodes the source in the
+     * background. Whatever is currently shown stays until the new bitmap arrives.
+     */
+    private void requestImage()
+    {
+        RectF drawableRect = shapedDrawable.getDrawableRect();
+
+        requestImage((int) Math.ceil(drawableRect.width()), (int) Math.ceil(drawableRect.height()));
+    }
+
+    private void requestImage(int width, int height)
+    {
+        isDecodePending = false;
+        cancelImageRequest();
+
+        ImageCache.Key key = prepareDecode(imageSource, width, height);
+        Bitmap cached = ImageCache.getInstance().get(key);
 
-    private Bitmap getBitmap(Drawable drawable)
+        if (cached != null)
+        {
+            setRequestedBitmap(cached);
+        }
+        else
+        {
+            imageRequest = ImageLoader.load(getContext(), imageSource, key, decodedWidth, decodedHeight, decodedConfig,
+                    imageCallback);
+        }
+    }
+
+    private void setRequestedBitmap(Bitmap bitmap)
     {
-        if (drawable != null)
+        shapedDrawable.setBitmap(bitmap, imageSource);
+
+        if (bitmap != null && decodedWidth <= 0)
         {
+            // Decoded without a size to size the view by, at its density like setImageResource,
+            // and kept unless the view is laid out larger.
+            DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+            int height = bitmap.getScaledHeight(displayMetrics);
+            int width = bitmap.getScaledWidth(displayMetrics);
+
+            decodedHeight = Math.max(bitmap.getHeight(), height);
+            decodedWidth = Math.max(bitmap.getWidth(), width);
 
-            if (drawable instanceof BitmapDrawable)
+            if (height != sourceHeight || width != sourceWidth)
             {
-                return ((BitmapDrawable) drawable).getBitmap();
+                sourceHeight = height;
+                sourceWidth = width;
+                isSourceSizePending = true;
+                requestLayout();
             }
+        }
+    }
 
-            try
-            {
-                Bitmap bitmap;
+    /**
+     * Whether the source is being decoded without a size, to find out the view's.
+     */
+    private boolean isDecodingUnsized()
+    {
+        return imageRequest != null && decodedWidth <= 0;
+    }
+
+    /**
+     * Returns the bitmap for the source at the size of drawableRect, from the shared
+     * {@link ImageCache} if another view already decoded it.
+     */
+    private Bitmap loadBitmap(ImageSource source)
+    {
+        RectF drawableRect = shapedDrawable.getDrawableRect();
+        ImageCache.Key key = prepareDecode(source, (int) Math.ceil(drawableRect.width()),
+                (int) Math.ceil(drawableRect.height()));
+
+        return ImageLoader.loadNow(getContext(), source, key, decodedWidth, decodedHeight, decodedConfig);
+    }
+
+    /**
+     * Shows a drawable inflated from a non-bitmap resource, sharing its rasterised
+     * bitmap through the {@link ImageCache}.
+     */
+    private void setResourceDrawable(ImageSource source, Drawable drawable)
+    {
+        if (drawable == null || drawable instanceof BitmapDrawable || ShapedDrawable.canPaintDirectly(drawable))
+        {
+            shapedDrawable.setImageDrawable(drawable);
+            return;
+        }
 
-                if (drawable instanceof ColorDrawable)
-                {
-                    bitmap = Bitmap.createBitmap(COLOR_DRAWABLE_DIMENSION, COLOR_DRAWABLE_DIMENSION, BITMAP_CONFIG);
-                }
-                else
-                {
-                    bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), BITMAP_CONFIG);
-                }
+        ImageCache cache = ImageCache.getInstance();
+        ImageCache.Key key = ImageCache.key(source, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(),
+                ShapedDrawable.BITMAP_CONFIG, getShape(), getStrokeSize());
 
-                Canvas canvas = new Canvas(bitmap);
+        Bitmap cached = cache.get(key);
 
-                drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-                drawable.draw(canvas);
+        if (cached == null)
+        {
+            cached = ShapedDrawable.rasterise(drawable);
 
-                return bitmap;
+            if (cached != null)
+            {
+                cache.put(key, cached);
             }
-            catch (Exception e)
+        }
+
+        shapedDrawable.setBitmap(cached, source);
+    }
+
+    /**
+     * Whether the view's size depends on its image: the last measure left a dimension to
+     * the content or, before the first one, the view is wrap_content.
+     */
+    private boolean isSizedByContent()
+    {
+        if (isMeasured)
+        {
+            return !isSizedExactly;
+        }
+
+        ViewGroup.LayoutParams params = getLayoutParams();
+
+        return params != null
+                && (params.width == ViewGroup.LayoutParams.WRAP_CONTENT
+                || params.height == ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    /**
+     * Reads the size onMeasure reports for a bitmap source. Returns false if the source
+     * is not a bitmap.
+     */
+    private boolean readSourceSize(ImageSource source)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+
+        if (!BitmapDecoder.decodeBounds(getContext(), source, options))
+        {
+            return false;
+        }
+
+        sourceHeight = BitmapDecoder.scaledSize(options.outHeight, options);
+        sourceWidth = BitmapDecoder.scaledSize(options.outWidth, options);
+
+        return true;
+    }
+
+    /**
+     * Decodes a bitmap source to the size of drawableRect, right away if the view is laid
+     * out and keeps its size, otherwise after the next layout. Returns false if the source
+     * has to go through ImageView instead because it is not a bitmap.
+     */
+    private boolean setImageSource(ImageSource source)
+    {
+        // Colors and XML drawables are common placeholders, so rule them out before a cache lookup.
+        if (source.uri == null && !BitmapDecoder.isBitmapResource(getContext(), source.resId, new TypedValue()))
+        {
+            return false;
+        }
+
+        boolean isSizeChanged = false;
+
+        if (!isSizedExactly)
+        {
+            // The view may be sized by the image, so onMeasure has to know the source's size.
+            Drawable drawable = getDrawable();
+            int height = imageSource != null ? sourceHeight : drawable != null ? drawable.getIntrinsicHeight() : -1;
+            int width = imageSource != null ? sourceWidth : drawable != null ? drawable.getIntrinsicWidth() : -1;
+
+            if (!readSourceSize(source))
             {
-                e.printStackTrace();
+                return false;
+            }
+
+            isSizeChanged = sourceHeight != height || sourceWidth != width;
+        }
+        else
+        {
+            sourceHeight = -1;
+            sourceWidth = -1;
+        }
+
+        if (isReady && getWidth() > 0 && getHeight() > 0 && !isSizeChanged)
+        {
+            // The view's size is final, so the source can be decoded (or found in the cache) right away.
+            Bitmap decoded = loadBitmap(source);
 
-                return null;
+            if (decoded == null)
+            {
+                return false;
             }
+
+            super.setImageDrawable(null);
+
+            shapedDrawable.setBitmap(decoded, source);
+            imageSource = source;
+            isDecodeAsync = false;
+            isDecodePending = false;
+            isRasterisePending = false;
+            isSourceSizePending = false;
+            initialize();
+
+            return true;
+        }
+
+        if (isSizedExactly && !BitmapDecoder.isBitmap(getContext(), source))
+        {
+            return false;
+        }
+
+        super.setImageDrawable(null);
+
+        shapedDrawable.clearImage();
+        imageSource = source;
+        isDecodeAsync = false;
+        isDecodePending = true;
+        isRasterisePending = false;
+        isSourceSizePending = isSizeChanged;
+
+        if (isSizeChanged)
+        {
+            requestLayout();
+        }
+
+        initialize();
+
+        return true;
+    }
+
+    // region Getters/Setters
+
+    /**
+     * Shows the initials of the name (the first letters of its first and last words) over
+     * a fill color picked from the avatar palette by the name's hash, so a name always
+     * gets the same color. Glyphs come from a cache shared by all views, and nothing is
+     * allocated per call once they are cached. Pass null to clear the initials.
+     */
+    public void setAvatar(CharSequence name)
+    {
+        setAvatar(name != null ? Avatar.hash(name) : 0, name);
+    }
+
+    /**
+     * Like {@link #setAvatar(CharSequence)}, but picks the color from an id, such as a
+     * contact id, so that it stays the same when the name changes.
+     */
+    public void setAvatar(long id, CharSequence name)
+    {
+        setAvatar(Avatar.hash(id), name);
+    }
+
+    private void setAvatar(int hash, CharSequence name)
+    {
+        beginUpdate();
+
+        if (name != null)
+        {
+            shapedDrawable.setFillColor(Avatar.color(hash, avatarPalette));
+        }
+        shapedDrawable.setInitials(name);
+
+        endUpdate();
+    }
+
+    public int[] getAvatarPalette()
+    {
+        return avatarPalette;
+    }
+
+    /**
+     * Sets the fill colors avatars are picked from. The array is used as is, not copied.
+     */
+    public void setAvatarPalette(int[] avatarPalette)
+    {
+        if (avatarPalette == null || avatarPalette.length == 0)
+        {
+            throw new IllegalArgumentException("avatarPalette must not be empty.");
+        }
+
+        this.avatarPalette = avatarPalette;
+    }
+
+    public Bitmap.Config getBitmapConfig()
+    {
+        return bitmapConfig;
+    }
+
+    /**
+     * Sets the config that bitmap sources are decoded to. RGB_565 halves the memory of
+     * photos and is only used for JPEGs, which have no alpha; other images stay ARGB_8888.
+     * HARDWARE (API 26) keeps the pixels in graphics memory only, and falls back to
+     * ARGB_8888 while the render cache or a software layer needs to read them.
+     * Rasterised drawables are always ARGB_8888. Takes effect on the next decode.
+     */
+    public void setBitmapConfig(Bitmap.Config bitmapConfig)
+    {
+        if (bitmapConfig == null)
+        {
+            throw new IllegalArgumentException("bitmapConfig must not be null.");
+        }
+
+        this.bitmapConfig = bitmapConfig;
+        updateDecodeConfig();
+    }
+
+    public static Bitmap.Config getDefaultBitmapConfig()
+    {
+        return defaultBitmapConfig;
+    }
+
+    /**
+     * Sets the bitmap config of views created afterwards without siv_bitmapConfig.
+     *
+     * @see #setBitmapConfig(Bitmap.Config)
+     */
+    public static void setDefaultBitmapConfig(Bitmap.Config bitmapConfig)
+    {
+        if (bitmapConfig == null)
+        {
+            throw new IllegalArgumentException("bitmapConfig must not be null.");
         }
 
-        return null;
+        defaultBitmapConfig = bitmapConfig;
     }
 
     public int getFillColor()
     {
-        return fillColor;
+        return shapedDrawable.getFillColor();
     }
 
     public void setFillColor(int fillColor)
     {
-        this.fillColor = fillColor;
-        invalidate();
+        shapedDrawable.setFillColor(fillColor);
+    }
+
+    /**
+     * Decodes the resource at the displayed size on a background thread. The fill color
+     * and text are shown until it arrives, and the request is dropped if another image
+     * is set or the view is detached first.
+     */
+    public void loadImageAsync(@DrawableRes int resId)
+    {
+        if (resId != 0 && !BitmapDecoder.isBitmapResource(getContext(), resId, new TypedValue()))
+        {
+            // Colors and XML drawables are not decoded, so there is nothing to wait for.
+            setImageResource(resId);
+            return;
+        }
+
+        loadImageAsync(resId != 0 ? ImageSource.of(resId) : null);
+    }
+
+    /**
+     * Decodes the URI at the displayed size on a background thread.
+     *
+     * @see #loadImageAsync(int)
+     */
+    public void loadImageAsync(Uri uri)
+    {
+        loadImageAsync(uri != null ? ImageSource.of(uri) : null);
+    }
+
+    private void loadImageAsync(ImageSource source)
+    {
+        cancelImageRequest();
+
+        if (imageSource == null)
+        {
+            // onMeasure reports the current image's size until the new one arrives, so a view
+            // sized by its image does not collapse and expand again on every bind.
+            Drawable drawable = getDrawable();
+
+            sourceHeight = drawable != null ? drawable.getIntrinsicHeight() : -1;
+            sourceWidth = drawable != null ? drawable.getIntrinsicWidth() : -1;
+        }
+
+        super.setImageDrawable(null);
+
+        shapedDrawable.clearImage();
+        imageSource = source;
+        isDecodeAsync = true;
+        isDecodePending = source != null;
+        isRasterisePending = false;
+        isSourceSizePending = false;
+        initialize();
     }
 
     @Override
     public void setImageBitmap(Bitmap bm)
     {
+        cancelImageRequest();
         super.setImageBitmap(bm);
 
-        bitmap = bm;
+        shapedDrawable.setBitmap(bm);
+        imageSource = null;
+        isRasterisePending = false;
         initialize();
     }
 
     @Override
     public void setImageDrawable(Drawable drawable)
     {
+        cancelImageRequest();
         super.setImageDrawable(drawable);
 
-        bitmap = getBitmap(drawable);
+        getShapedDrawable().setImageDrawable(drawable);
+        imageSource = null;
+        isRasterisePending = false;
         initialize();
     }
 
     @Override
     public void setImageResource(@DrawableRes int resId)
     {
+        cancelImageRequest();
+
+        if (resId != 0 && setImageSource(ImageSource.of(resId)))
+        {
+            return;
+        }
+
+        imageSource = null;
+        isRasterisePending = false;
         super.setImageResource(resId);
 
-        bitmap = getBitmap(getDrawable());
+        setResourceDrawable(ImageSource.of(resId), resId != 0 ? getDrawable() : null);
         initialize();
     }
 
     @Override
     public void setImageURI(Uri uri)
     {
+        cancelImageRequest();
+
+        if (uri != null && setImageSource(ImageSource.of(uri)))
+        {
+            return;
+        }
+
+        imageSource = null;
+        isRasterisePending = false;
         super.setImageURI(uri);
 
-        bitmap = uri != null ? getBitmap(getDrawable()) : null;
+        shapedDrawable.setImageDrawable(uri != null ? getDrawable() : null);
         initialize();
     }
 
@@ -380,81 +1026,118 @@ public class ShapedImageView extends ImageView
         }
     }
 
+    public boolean isRenderCacheEnabled()
+    {
+        return renderCacheEnabled;
+    }
+
+    /**
+     * When enabled, the view composites its fill, image, stroke and text into a bitmap
+     * of its own size and only draws that bitmap until an attribute or the image
+     * changes. This trades {@code width * height * 4} bytes per view for a single
+     * {@code drawBitmap} per frame, which suits avatars that do not change after bind.
+     */
+    public void setRenderCacheEnabled(boolean renderCacheEnabled)
+    {
+        this.renderCacheEnabled = renderCacheEnabled;
+
+        if (!renderCacheEnabled)
+        {
+            releaseRenderCache();
+        }
+
+        updateDecodeConfig();
+        invalidateUnlessUpdating();
+    }
+
     public int getShape()
     {
-        return shape;
+        return shapedDrawable.getShape();
     }
 
     public void setShape(int shape)
     {
-        this.shape = shape;
-        invalidate();
+        shapedDrawable.setShape(shape);
     }
 
     public int getStrokeColor()
     {
-        return strokeColor;
+        return shapedDrawable.getStrokeColor();
     }
 
     public void setStrokeColor(int strokeColor)
     {
-        this.strokeColor = strokeColor;
-        invalidate();
+        shapedDrawable.setStrokeColor(strokeColor);
     }
 
     public int getStrokeSize()
     {
-        return strokeSize;
+        return shapedDrawable.getStrokeSize();
     }
 
     public void setStrokeSize(int strokeSize)
     {
-        this.strokeSize = strokeSize;
-        invalidate();
+        shapedDrawable.setStrokeSize(strokeSize);
+
+        if (imageSource != null)
+        {
+            // A thinner stroke grows drawableRect past the decoded size, which initialize() re-decodes.
+            initialize();
+        }
     }
 
     public String getText()
     {
-        return text;
+        return shapedDrawable.getText();
     }
 
     public void setText(String text)
     {
-        this.text = text;
-        invalidate();
+        shapedDrawable.setText(text);
+    }
+
+    public boolean isTextAutoFit()
+    {
+        return shapedDrawable.isTextAutoFit();
+    }
+
+    /**
+     * When enabled, text that would not fit inside the shape is drawn smaller than
+     * {@link #getTextSize()}.
+     */
+    public void setTextAutoFit(boolean textAutoFit)
+    {
+        shapedDrawable.setTextAutoFit(textAutoFit);
     }
 
     public int getTextColor()
     {
-        return textPaint.getColor();
+        return shapedDrawable.getTextColor();
     }
 
     public void setTextColor(int color)
     {
-        textPaint.setColor(color);
-        invalidate();
+        shapedDrawable.setTextColor(color);
     }
 
     public float getTextSize()
     {
-        return textPaint.getTextSize();
+        return shapedDrawable.getTextSize();
     }
 
     public void setTextSize(float size)
     {
-        textPaint.setTextSize(size);
-        invalidate();
+        shapedDrawable.setTextSize(size);
     }
 
     public Typeface getTypeface() {
-        return textPaint.getTypeface();
+        return shapedDrawable.getTypeface();
     }
 
     public void setTypeface(Typeface typeface)
     {
-        textPaint.setTypeface(typeface);
-        invalidate();
+        shapedDrawable.setTypeface(typeface);
     }
 
     // endregion
-}
\ No newline at end of file
+}
@@ -0,0 +1,157 @@
+package io.andref.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+import android.view.View;
+
+import java.util.Locale;
+
+/**
+ * Reports where the widgets spend their time. Decodes, rasterisation, layout and drawing
+ * are always wrapped in {@link Trace} sections on API 18 and up, so they show up in
+ * systrace. Numbers are only measured while a {@link Listener} is set, and cost a single
+ * field read otherwise.
+ */
+public final class WidgetMetrics
+{
+    private static final String TAG = "WidgetMetrics";
+
+    /**
+     * Bitmaps with more than this many times the pixels they are drawn at are oversized.
+     * Power of two subsampling alone can leave up to four times the pixels, so this only
+     * flags bitmaps that were not decoded to size.
+     */
+    private static final int OVERSIZED_PIXEL_RATIO = 4;
+
+    /** The vsync interval at 60 Hz, used to count the frames a flip skipped. */
+    static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    static volatile Listener listener;
+
+    static volatile boolean isOversizedBitmapDetectionEnabled;
+
+    /**
+     * Receives the measurements. Override the methods of interest. Decodes are reported
+     * on the loader threads and cache lookups on whichever thread made them, everything
+     * else on the main thread, so implementations must be thread-safe and fast.
+     */
+    public abstract static class Listener
+    {
+        /**
+         * An image was decoded for a view. {@code decodedPixels} above {@code displayedPixels}
+         * is memory spent on detail the view cannot show.
+         */
+        public void onImageDecoded(String source, long durationNanos, int decodedPixels, int displayedPixels)
+        {
+        }
+
+        /** A drawable that is not a bitmap was drawn into a bitmap of {@code pixels} pixels. */
+        public void onDrawableRasterised(long durationNanos, int pixels)
+        {
+        }
+
+        public void onDraw(View view, long durationNanos)
+        {
+        }
+
+        public void onCacheLookup(boolean hit)
+        {
+        }
+
+        /** Frames of an AnimatedCheckBox flip were skipped. */
+        public void onFramesDropped(View view, int droppedFrames)
+        {
+        }
+
+        /**
+         * A bitmap is drawn much smaller than it is, so {@code wastedBytes} of it are never
+         * seen. Only reported while oversized bitmap detection is enabled. {@code view} is
+         * null if the bitmap is not drawn by a view.
+         */
+        public void onOversizedBitmap(View view, String source, int bitmapWidth, int bitmapHeight,
+                                      int drawnWidth, int drawnHeight, long wastedBytes)
+        {
+        }
+    }
+
+    private WidgetMetrics()
+    {
+    }
+
+    public static Listener getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * Sets the listener for every widget in the process, or removes it if null.
+     */
+    public static void setListener(Listener listener)
+    {
+        WidgetMetrics.listener = listener;
+    }
+
+    public static boolean isOversizedBitmapDetectionEnabled()
+    {
+        return isOversizedBitmapDetectionEnabled;
+    }
+
+    /**
+     * Logs a warning, and notifies the listener, whenever a widget draws a bitmap with more
+     * than four times the pixels it is drawn at, along with the bytes wasted and where the bitmap
+     * came from. Meant for debug builds, e.g. {@code setOversizedBitmapDetectionEnabled(BuildConfig.DEBUG)}.
+     */
+    public static void setOversizedBitmapDetectionEnabled(boolean enabled)
+    {
+        isOversizedBitmapDetectionEnabled = enabled;
+    }
+
+    /**
+     * Reports the bitmap if it is oversized for being drawn at {@code scale}.
+     */
+    static void checkBitmapSize(Drawable.Callback owner, ImageSource source, Bitmap bitmap, float scale)
+    {
+        float drawnFraction = scale * scale;
+
+        if (drawnFraction * OVERSIZED_PIXEL_RATIO >= 1)
+        {
+            return;
+        }
+
+        int drawnWidth = Math.round(bitmap.getWidth() * scale);
+        int drawnHeight = Math.round(bitmap.getHeight() * scale);
+        long wastedBytes = (long) (bitmap.getByteCount() * (1 - drawnFraction));
+        String description = source != null ? source.toString() : "bitmap";
+        View view = owner instanceof View ? (View) owner : null;
+
+        Log.w(TAG, String.format(Locale.US, "%s is %dx%d but drawn at %dx%d, wasting %d bytes (%s)",
+                description, bitmap.getWidth(), bitmap.getHeight(), drawnWidth, drawnHeight, wastedBytes, view));
+
+        Listener listener = WidgetMetrics.listener;
+
+        if (listener != null)
+        {
+            listener.onOversizedBitmap(view, description, bitmap.getWidth(), bitmap.getHeight(),
+                    drawnWidth, drawnHeight, wastedBytes);
+        }
+    }
+
+    static void beginSection(String sectionName)
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+        {
+            Trace.beginSection(sectionName);
+        }
+    }
+
+    static void endSection()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+        {
+            Trace.endSection();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package io.andref.widget;
+
+import android.view.View;
+import android.view.ViewGroup;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class AnimatedCheckBoxTest
+{
+    private static final int ICON_SIZE = 24;
+    private static final int STROKE_SIZE = 4;
+
+    private AnimatedCheckBox checkBox;
+
+    @Before
+    public void setUp()
+    {
+        checkBox = new AnimatedCheckBox(RuntimeEnvironment.application);
+
+        // Done by LayoutInflater for checkboxes declared in XML.
+        checkBox.onFinishInflate();
+
+        checkBox.setLayoutParams(new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        checkBox.setIconHeight(ICON_SIZE);
+        checkBox.setIconWidth(ICON_SIZE);
+        checkBox.setStrokeSize(STROKE_SIZE);
+    }
+
+    private static int spec(int size, int mode)
+    {
+        return View.MeasureSpec.makeMeasureSpec(size, mode);
+    }
+
+    @Test
+    public void wrapContentWithoutImageFitsTheIconInsideTheStroke()
+    {
+        checkBox.measure(spec(0, View.MeasureSpec.UNSPECIFIED), spec(0, View.MeasureSpec.UNSPECIFIED));
+
+        assertEquals(ICON_SIZE + STROKE_SIZE * 2, checkBox.getMeasuredWidth());
+        assertEquals(ICON_SIZE + STROKE_SIZE * 2, checkBox.getMeasuredHeight());
+    }
+
+    @Test
+    public void wrapContentAddsThePadding()
+    {
+        checkBox.setPadding(1, 2, 3, 4);
+        checkBox.measure(spec(100, View.MeasureSpec.AT_MOST), spec(100, View.MeasureSpec.AT_MOST));
+
+        assertEquals(ICON_SIZE + STROKE_SIZE * 2 + 4, checkBox.getMeasuredWidth());
+        assertEquals(ICON_SIZE + STROKE_SIZE * 2 + 6, checkBox.getMeasuredHeight());
+    }
+
+    @Test
+    public void wrapContentIsLimitedByTheParent()
+    {
+        checkBox.measure(spec(20, View.MeasureSpec.AT_MOST), spec(20, View.MeasureSpec.AT_MOST));
+
+        assertEquals(20, checkBox.getMeasuredWidth());
+        assertEquals(20, checkBox.getMeasuredHeight());
+    }
+
+    @Test
+    public void exactSizeIgnoresTheContent()
+    {
+        checkBox.measure(spec(48, View.MeasureSpec.EXACTLY), spec(48, View.MeasureSpec.EXACTLY));
+
+        assertEquals(48, checkBox.getMeasuredWidth());
+        assertEquals(48, checkBox.getMeasuredHeight());
+    }
+
+    @Test
+    public void frontFaceTakesTheSizeOfTheCheckBox()
+    {
+        checkBox.setPadding(2, 2, 2, 2);
+        checkBox.measure(spec(0, View.MeasureSpec.UNSPECIFIED), spec(0, View.MeasureSpec.UNSPECIFIED));
+
+        View face = checkBox.getChildAt(checkBox.getChildCount() - 1);
+
+        assertEquals(checkBox.getMeasuredWidth() - 4, face.getMeasuredWidth());
+        assertEquals(checkBox.getMeasuredHeight() - 4, face.getMeasuredHeight());
+    }
+}
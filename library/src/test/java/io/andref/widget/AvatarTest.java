@@ -0,0 +1,118 @@
+package io.andref.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AvatarTest
+{
+    private final char[] out = new char[Avatar.MAX_INITIALS];
+
+    private String initials(CharSequence name)
+    {
+        return new String(out, 0, Avatar.initials(name, out));
+    }
+
+    // region initials
+
+    @Test
+    public void emptyNameHasNoInitials()
+    {
+        assertEquals("", initials(""));
+    }
+
+    @Test
+    public void whitespaceOnlyNameHasNoInitials()
+    {
+        assertEquals("", initials(" \t\n "));
+    }
+
+    @Test
+    public void singleWordHasOneInitial()
+    {
+        assertEquals("A", initials("ada"));
+        assertEquals("A", initials("  ada  "));
+    }
+
+    @Test
+    public void initialsAreThoseOfTheFirstAndLastWords()
+    {
+        assertEquals("AL", initials("Ada Lovelace"));
+        assertEquals("AL", initials("Ada King  Lovelace"));
+    }
+
+    @Test
+    public void initialsSkipLeadingPunctuation()
+    {
+        assertEquals("AO", initials("(Ada) o'Neil"));
+        assertEquals("3", initials("3M"));
+    }
+
+    @Test
+    public void wordsStartingWithASurrogatePairAreSkipped()
+    {
+        // U+1F600 GRINNING FACE and U+1D400 MATHEMATICAL BOLD CAPITAL A
+        assertEquals("A", initials("\uD83D\uDE00 Ada"));
+        assertEquals("AL", initials("Ada \uD835\uDC00da Lovelace"));
+        assertEquals("", initials("\uD835\uDC00da"));
+    }
+
+    @Test
+    public void surrogatePairsInsideAWordAreIgnored()
+    {
+        assertEquals("AL", initials("Ada\uD83D\uDE00 Lovelace"));
+    }
+
+    @Test
+    public void initialsAreUpperCased()
+    {
+        assertEquals("\u00C9\u00D6", initials("\u00E9mile \u00F6d\u00F6n"));
+    }
+
+    // endregion
+
+    // region hash and color
+
+    @Test
+    public void hashOfANameIsThatOfTheString()
+    {
+        assertEquals("Ada Lovelace".hashCode(), Avatar.hash(new StringBuilder("Ada Lovelace")));
+        assertEquals(0, Avatar.hash(""));
+    }
+
+    @Test
+    public void hashOfAnIdIsThatOfTheLong()
+    {
+        assertEquals(Long.valueOf(42).hashCode(), Avatar.hash(42));
+        assertEquals(Long.valueOf(-1).hashCode(), Avatar.hash(-1));
+        assertEquals(Long.valueOf(Long.MIN_VALUE).hashCode(), Avatar.hash(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void colorIsPickedFromThePaletteForAnyHash()
+    {
+        int[] palette = { 1, 2, 3 };
+
+        for (int hash : new int[] { 0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE })
+        {
+            int color = Avatar.color(hash, palette);
+
+            assertTrue(color >= 1 && color <= 3);
+        }
+    }
+
+    /**
+     * A name keeps its color across releases, so the palette and the mapping must not change.
+     */
+    @Test
+    public void defaultPaletteColorsAreStable()
+    {
+        assertEquals(15, Avatar.DEFAULT_PALETTE.length);
+        assertEquals(0xFFF44336, Avatar.color(Avatar.hash("Ada Lovelace"), Avatar.DEFAULT_PALETTE));
+        assertEquals(0xFF607D8B, Avatar.color(Avatar.hash("Grace Hopper"), Avatar.DEFAULT_PALETTE));
+        assertEquals(Avatar.DEFAULT_PALETTE[42 % 15], Avatar.color(Avatar.hash(42), Avatar.DEFAULT_PALETTE));
+    }
+
+    // endregion
+}
@@ -0,0 +1,139 @@
+package io.andref.widget;
+
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class BitmapDecoderTest
+{
+    // region calculateInSampleSize
+
+    @Test
+    public void sampleSizeKeepsBothSidesAtOrAboveTheTarget()
+    {
+        // 4000x3000 / 16 = 250x187, / 32 would make the height 93.
+        assertEquals(16, BitmapDecoder.calculateInSampleSize(4000, 3000, 100, 100));
+    }
+
+    @Test
+    public void sampleSizeStopsAtAnExactFit()
+    {
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(400, 400, 200, 200));
+    }
+
+    @Test
+    public void sampleSizeIsLimitedByTheShortSideOfAnExtremeAspectRatio()
+    {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(10000, 10, 100, 100));
+    }
+
+    @Test
+    public void sampleSizeIsOneForATargetLargerThanTheSource()
+    {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(100, 100, 200, 200));
+    }
+
+    @Test
+    public void sampleSizeIsOneWithoutATarget()
+    {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(4000, 3000, 0, 0));
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(4000, 3000, 100, -1));
+    }
+
+    // endregion
+
+    // region calculateCenterCrop
+
+    @Test
+    public void cropOfTheSameAspectRatioIsNull()
+    {
+        assertNull(BitmapDecoder.calculateCenterCrop(1000, 1000, 100, 100));
+    }
+
+    @Test
+    public void cropIsCentred()
+    {
+        assertEquals(new Rect(500, 0, 1500, 1000), BitmapDecoder.calculateCenterCrop(2000, 1000, 100, 100));
+        assertEquals(new Rect(0, 500, 1000, 1500), BitmapDecoder.calculateCenterCrop(1000, 2000, 100, 100));
+    }
+
+    @Test
+    public void cropCuttingOffLessThanTheMinimumFractionIsNull()
+    {
+        // 950x950 of 1000x950 keeps 95% of the source.
+        assertNull(BitmapDecoder.calculateCenterCrop(1000, 950, 100, 100));
+    }
+
+    @Test
+    public void cropOfAnExtremeAspectRatioKeepsAtLeastOnePixel()
+    {
+        assertEquals(new Rect(4995, 0, 5005, 10), BitmapDecoder.calculateCenterCrop(10000, 10, 100, 100));
+        assertEquals(new Rect(0, 499, 1000, 500), BitmapDecoder.calculateCenterCrop(1000, 1000, 1000, 1));
+        assertEquals(new Rect(499, 0, 500, 1000), BitmapDecoder.calculateCenterCrop(1000, 1000, 1, 100000));
+    }
+
+    @Test
+    public void cropForATargetLargerThanTheSourceOnlyDependsOnTheAspectRatio()
+    {
+        assertEquals(new Rect(25, 0, 75, 50), BitmapDecoder.calculateCenterCrop(100, 50, 1000, 1000));
+    }
+
+    @Test
+    public void cropIsNullWithoutATarget()
+    {
+        assertNull(BitmapDecoder.calculateCenterCrop(2000, 1000, 0, 0));
+        assertNull(BitmapDecoder.calculateCenterCrop(2000, 1000, 100, 0));
+    }
+
+    // endregion
+
+    // region Fitting the display
+
+    @Test
+    public void fitScaleFitsTheLongerSide()
+    {
+        assertEquals(0.48f, BitmapDecoder.calculateFitScale(4000, 3000, 1920), 1e-6f);
+        assertEquals(0.48f, BitmapDecoder.calculateFitScale(3000, 4000, 1920), 1e-6f);
+    }
+
+    @Test
+    public void fitScaleNeverEnlarges()
+    {
+        assertEquals(1f, BitmapDecoder.calculateFitScale(100, 50, 1920), 0);
+        assertEquals(1f, BitmapDecoder.calculateFitScale(1920, 10, 1920), 0);
+    }
+
+    @Test
+    public void scaledSizeScalesResourcesToTheDisplayDensity()
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inDensity = 160;
+        options.inTargetDensity = 480;
+
+        assertEquals(300, BitmapDecoder.scaledSize(100, options));
+
+        options.inDensity = 480;
+        options.inTargetDensity = 160;
+
+        assertEquals(100, BitmapDecoder.scaledSize(301, options));
+    }
+
+    @Test
+    public void scaledSizeKeepsSourcesWithoutDensity()
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inTargetDensity = 480;
+
+        assertEquals(301, BitmapDecoder.scaledSize(301, options));
+    }
+
+    // endregion
+}
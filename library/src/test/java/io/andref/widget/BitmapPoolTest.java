@@ -0,0 +1,81 @@
+package io.andref.widget;
+
+import android.graphics.Bitmap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class BitmapPoolTest
+{
+    private BitmapPool pool;
+
+    @Before
+    public void setUp()
+    {
+        pool = BitmapPool.getInstance();
+        pool.clear();
+    }
+
+    private static Bitmap bitmap(int size)
+    {
+        return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    }
+
+    @Test
+    public void reusesTheSmallestBitmapThatFits()
+    {
+        Bitmap large = bitmap(140);
+        Bitmap small = bitmap(110);
+        Bitmap tooSmall = bitmap(90);
+
+        pool.put(large);
+        pool.put(small);
+        pool.put(tooSmall);
+
+        assertSame(small, pool.getReusable(100, 100, Bitmap.Config.ARGB_8888));
+        assertSame(large, pool.getReusable(100, 100, Bitmap.Config.ARGB_8888));
+        assertNull(pool.getReusable(100, 100, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void reusesAnExactFit()
+    {
+        Bitmap larger = bitmap(120);
+        Bitmap exact = bitmap(100);
+
+        pool.put(larger);
+        pool.put(exact);
+
+        assertSame(exact, pool.getReusable(100, 100, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void doesNotReuseBitmapsMoreThanTwiceTheRequiredSize()
+    {
+        // 150x150 holds 2.25 times the memory of 100x100.
+        Bitmap large = bitmap(150);
+
+        pool.put(large);
+
+        assertNull(pool.getReusable(100, 100, Bitmap.Config.ARGB_8888));
+        assertSame(large, pool.getReusable(120, 120, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void smallerConfigsFitInLargerBitmaps()
+    {
+        // 100x100 RGB_565 needs half of the memory of 100x100 ARGB_8888.
+        Bitmap bitmap = bitmap(100);
+
+        pool.put(bitmap);
+
+        assertSame(bitmap, pool.getReusable(100, 100, Bitmap.Config.RGB_565));
+    }
+}
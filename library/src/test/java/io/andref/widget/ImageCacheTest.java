@@ -0,0 +1,165 @@
+package io.andref.widget;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ImageCacheTest
+{
+    /** 100x100 ARGB_8888 bitmaps take 39 KB, so the cache holds two of them. */
+    private static final int MAX_SIZE_KB = 100;
+
+    private static final Uri URI = Uri.parse("content://io.andref.example/images/1");
+
+    private ImageCache cache;
+
+    @Before
+    public void setUp()
+    {
+        ImageCache.setMaxSize(MAX_SIZE_KB);
+
+        cache = ImageCache.getInstance();
+    }
+
+    private static ImageCache.Key key(int resId)
+    {
+        return ImageCache.key(ImageSource.of(resId), 100, 100, Bitmap.Config.ARGB_8888, 0, 0);
+    }
+
+    private static Bitmap bitmap()
+    {
+        return Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+    }
+
+    // region Key
+
+    @Test
+    public void keysOfTheSameDecodeAreEqual()
+    {
+        ImageCache.Key a = ImageCache.key(ImageSource.of(URI), 100, 50, Bitmap.Config.RGB_565, 1, 2);
+        ImageCache.Key b = ImageCache.key(ImageSource.of(Uri.parse(URI.toString())), 100, 50, Bitmap.Config.RGB_565, 1, 2);
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertTrue(a.matches(ImageSource.of(URI), 100, 50, Bitmap.Config.RGB_565, 1, 2));
+    }
+
+    @Test
+    public void keysDifferByConfig()
+    {
+        ImageSource source = ImageSource.of(1);
+
+        assertNotEquals(ImageCache.key(source, 100, 100, Bitmap.Config.ARGB_8888, 0, 0),
+                ImageCache.key(source, 100, 100, Bitmap.Config.RGB_565, 0, 0));
+        assertNotEquals(ImageCache.key(source, 100, 100, Bitmap.Config.ARGB_8888, 0, 0),
+                ImageCache.key(source, 100, 100, null, 0, 0));
+    }
+
+    @Test
+    public void keysDifferBySize()
+    {
+        ImageSource source = ImageSource.of(1);
+        ImageCache.Key key = ImageCache.key(source, 100, 50, Bitmap.Config.ARGB_8888, 0, 0);
+
+        assertNotEquals(key, ImageCache.key(source, 50, 100, Bitmap.Config.ARGB_8888, 0, 0));
+        assertNotEquals(key, ImageCache.key(source, 101, 50, Bitmap.Config.ARGB_8888, 0, 0));
+        assertNotEquals(key, ImageCache.key(source, 100, 51, Bitmap.Config.ARGB_8888, 0, 0));
+        assertFalse(key.matches(source, 50, 100, Bitmap.Config.ARGB_8888, 0, 0));
+    }
+
+    @Test
+    public void keysDifferBySource()
+    {
+        assertNotEquals(key(1), key(2));
+        assertNotEquals(ImageCache.key(ImageSource.of(URI), 100, 100, Bitmap.Config.ARGB_8888, 0, 0),
+                ImageCache.key(ImageSource.of(Uri.parse("content://io.andref.example/images/2")),
+                        100, 100, Bitmap.Config.ARGB_8888, 0, 0));
+        assertNotEquals(key(0), ImageCache.key(ImageSource.of(URI), 100, 100, Bitmap.Config.ARGB_8888, 0, 0));
+    }
+
+    @Test
+    public void keysDifferByShapeAndStroke()
+    {
+        ImageSource source = ImageSource.of(1);
+        ImageCache.Key key = ImageCache.key(source, 100, 100, Bitmap.Config.ARGB_8888, 0, 0);
+
+        assertNotEquals(key, ImageCache.key(source, 100, 100, Bitmap.Config.ARGB_8888, 1, 0));
+        assertNotEquals(key, ImageCache.key(source, 100, 100, Bitmap.Config.ARGB_8888, 0, 4));
+    }
+
+    // endregion
+
+    // region contains
+
+    @Test
+    public void containsPutKeys()
+    {
+        Bitmap bitmap = bitmap();
+
+        cache.put(key(1), bitmap);
+
+        assertTrue(cache.contains(key(1)));
+        assertFalse(cache.contains(key(2)));
+        assertEquals(bitmap, cache.get(key(1)));
+    }
+
+    @Test
+    public void doesNotContainEvictedKeys()
+    {
+        cache.put(key(1), bitmap());
+        cache.put(key(2), bitmap());
+        cache.put(key(3), bitmap());
+
+        assertEquals(1, cache.evictionCount());
+        assertFalse(cache.contains(key(1)));
+        assertNull(cache.get(key(1)));
+        assertTrue(cache.contains(key(2)));
+        assertTrue(cache.contains(key(3)));
+    }
+
+    @Test
+    public void containsDoesNotKeepKeysFromEviction()
+    {
+        cache.put(key(1), bitmap());
+        cache.put(key(2), bitmap());
+
+        // Unlike get(), contains() does not make key 1 the most recently used.
+        assertTrue(cache.contains(key(1)));
+
+        cache.put(key(3), bitmap());
+
+        assertFalse(cache.contains(key(1)));
+        assertTrue(cache.contains(key(2)));
+    }
+
+    @Test
+    public void doesNotContainKeysAfterTrimmingOrEvictingAll()
+    {
+        cache.put(key(1), bitmap());
+        cache.put(key(2), bitmap());
+
+        cache.trimToSize(MAX_SIZE_KB / 2);
+
+        assertFalse(cache.contains(key(1)));
+        assertTrue(cache.contains(key(2)));
+
+        cache.evictAll();
+
+        assertFalse(cache.contains(key(2)));
+        assertEquals(0, cache.size());
+    }
+
+    // endregion
+}